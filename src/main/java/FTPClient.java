@@ -451,7 +451,8 @@ public class FTPClient {
 
                             String searchOption = FTPUtils.getInputFromUser(scan, "1. Search File With Keyword\n" +
                                     "2. Search File ending with Extension\n" +
-                                    "Please Choose Options \"1 or 2\"", "searchOption");
+                                    "3. Search the whole directory tree with a pattern\n" +
+                                    "Please Choose Options \"1, 2 or 3\"", "searchOption");
                             if ("1".equals(searchOption)) {
                                 String keyword = FTPUtils.getInputFromUser(scan, "Enter Search Keyword", "keyword");
                                 int fileCount = remoteConnection.searchFilesWithKeyword(searchFilePath, keyword);
@@ -460,6 +461,13 @@ public class FTPClient {
                                 String extension = FTPUtils.getInputFromUser(scan, "Enter Search File Extension", "extension");
                                 int fileCount = remoteConnection.searchFilesWithExtension(searchFilePath, extension);
                                 System.out.println("The number of files found with extension :[" + extension + "] are [" + fileCount + "]");
+                            } else if ("3".equals(searchOption)) {
+                                String pattern = FTPUtils.getInputFromUser(scan, "Enter Search Pattern (eg: *.log, **/logs/*.gz)", "pattern");
+                                int fileCount = remoteConnection.searchTree(searchFilePath, RemoteFileMatcher.glob(pattern), -1, 0, entry -> {
+                                    System.out.println(entry.getPath());
+                                    return true;
+                                });
+                                System.out.println("The number of files found with pattern :[" + pattern + "] are [" + fileCount + "]");
                             } else {
                                 logger.debug("-- Error: Invalid Search Option Selected! --");
                                 System.out.println("-- Error: Invalid Search Option Selected! --");
@@ -468,7 +476,7 @@ public class FTPClient {
 
                         case "15":
                             System.out.println("15. Search file on local machine\n");
-                            userOption = FTPUtils.getInputFromUser(scan, "Enter local file name", "userOption");
+                            userOption = FTPUtils.getInputFromUser(scan, "Enter local file name or pattern (eg: *.csv)", "userOption");
                             String local_file_path = FTPUtils.getInputFromUser(scan, "Enter local file path", "local_file_path:");
                             File theDir = new File(local_file_path);
 
@@ -0,0 +1,305 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncRemoteConnection class - runs RemoteConnection operations in the background, and returns a
+ * CompletableFuture for each of them, so that callers can overlap remote work with their own and compose it.
+ *
+ * Operations run on a bounded pool of `maxConcurrent` threads. Every operation borrows a logged in connection
+ * from a RemoteConnectionPool for the time it runs, so at most `maxConcurrent` connections are used at once.
+ * Up to `maxQueued` operations wait for a free thread, the future of any operation submitted beyond that
+ * fails at once with a RejectedExecutionException. A future fails with a CompletionException that holds the
+ * FTPClientException or IOException of the operation; a connection that broke is dropped from the pool.
+ */
+public class AsyncRemoteConnection implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(AsyncRemoteConnection.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT = RemoteConnectionPool.DEFAULT_MAX_PER_KEY;
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+
+    /**
+     * RemoteOperation interface - work done with one pooled connection.
+     */
+    public interface RemoteOperation<T> {
+        T run(RemoteConnection connection) throws IOException, FTPClientException;
+    }
+
+    private final String protocol;
+    private final String hostName;
+    private final String userName;
+    private final String password;
+    private final RemoteConnectionPool pool;
+    // The pool is closed with this instance only if this instance created it.
+    private final boolean ownsPool;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param protocol - FTP or SFTP.
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @param userName - client name
+     * @param password - client password
+     */
+    public AsyncRemoteConnection(String protocol, String hostName, String userName, String password) {
+        this(protocol, hostName, userName, password, new RemoteConnectionPool(DEFAULT_MAX_CONCURRENT,
+                RemoteConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, RemoteConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS),
+                true, DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param protocol - FTP or SFTP.
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @param userName - client name
+     * @param password - client password
+     * @param pool - pool shared with other users, it should allow at least `maxConcurrent` connections per key.
+     * @param maxConcurrent - number of operations that run at once.
+     * @param maxQueued - number of operations that can wait for a free thread.
+     */
+    public AsyncRemoteConnection(String protocol, String hostName, String userName, String password,
+                                 RemoteConnectionPool pool, int maxConcurrent, int maxQueued) {
+        this(protocol, hostName, userName, password, pool, false, maxConcurrent, maxQueued);
+    }
+
+    private AsyncRemoteConnection(String protocol, String hostName, String userName, String password,
+                                  RemoteConnectionPool pool, boolean ownsPool, int maxConcurrent, int maxQueued) {
+        this.protocol = protocol;
+        this.hostName = hostName;
+        this.userName = userName;
+        this.password = password;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        int threads = Math.max(1, maxConcurrent);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueued)), runnable -> {
+            Thread thread = new Thread(runnable, "async-remote-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * This method is used to run any operation with a pooled connection, in the background.
+     *
+     * @param operation - eg: connection -> connection.checkFileExists("/a.txt")
+     * @return [CompletableFuture] - result of the operation.
+     */
+    public <T> CompletableFuture<T> submit(RemoteOperation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(operation, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * This method is used to upload a single file.
+     *
+     * @param localFilePath - this is the path on local system
+     * @param remoteDir - remote directory the file is uploaded to.
+     * @return [CompletableFuture] - summary with the uploaded bytes, or the reason of the failure.
+     */
+    public CompletableFuture<TransferSummary> upload(String localFilePath, String remoteDir) {
+        return submit(connection -> {
+            TransferSummary summary = new TransferSummary();
+            if (connection.uploadSingleFile(localFilePath, remoteDir)) {
+                summary.recordSuccess(new File(localFilePath).length());
+            } else {
+                summary.recordFailure(localFilePath, "Could not upload the file to " + remoteDir);
+            }
+            summary.finish();
+            return summary;
+        });
+    }
+
+    /**
+     * This method is used to download a single file into a local directory.
+     *
+     * @param localDir - local directory where you want to download the file to.
+     * @param remoteFilePath - remote path of the file.
+     * @return [CompletableFuture] - summary with the downloaded bytes, or the reason of the failure.
+     */
+    public CompletableFuture<TransferSummary> download(String localDir, String remoteFilePath) {
+        return submit(connection -> {
+            TransferSummary summary = new TransferSummary();
+            File localFile = new File(localDir, remoteFilePath.substring(remoteFilePath.lastIndexOf('/') + 1));
+            if (connection.downloadFileToDirectory(localDir, remoteFilePath)) {
+                summary.recordSuccess(localFile.length());
+            } else {
+                summary.recordFailure(remoteFilePath, "Could not download the file to " + localDir);
+            }
+            summary.finish();
+            return summary;
+        });
+    }
+
+    /**
+     * This method is used to list a remote directory.
+     *
+     * @param remoteDir - remote directory.
+     * @return [CompletableFuture] - entries of the directory, with their name as path.
+     */
+    public CompletableFuture<List<RemoteFileEntry>> list(String remoteDir) {
+        return submit(connection -> {
+            List<RemoteFileEntry> entries = new ArrayList<>();
+            if (!connection.streamDirectory(remoteDir, entries::add)) {
+                throw new FTPClientException("Could not list " + remoteDir);
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * This method is used to list a remote directory, and to hand every entry to `visitor` while the listing
+     * is read, on the thread of the operation. The caller can process the first entries of a huge directory
+     * before the end of the listing arrives.
+     *
+     * @param remoteDir - remote directory.
+     * @param visitor - receives the entries one at a time, it can stop the listing.
+     * @return [CompletableFuture] - number of entries handed to the visitor.
+     */
+    public CompletableFuture<Integer> streamDirectory(String remoteDir, RemoteEntryVisitor visitor) {
+        return submit(connection -> {
+            AtomicInteger count = new AtomicInteger();
+            boolean listed = connection.streamDirectory(remoteDir, entry -> {
+                count.incrementAndGet();
+                return visitor.visit(entry);
+            });
+            if (!listed) {
+                throw new FTPClientException("Could not list " + remoteDir);
+            }
+            return count.get();
+        });
+    }
+
+    /**
+     * This method is used to get the size, modification time and type of a remote path, with MLST or an
+     * SFTP stat. See RemoteConnection.statRemoteFile
+     *
+     * @param remotePath - remote file or directory.
+     * @return [CompletableFuture] - entry with the full path, or empty if the path does not exist. It fails
+     * if the path could not be checked.
+     */
+    public CompletableFuture<Optional<RemoteFileEntry>> stat(String remotePath) {
+        return submit(connection -> Optional.ofNullable(connection.statRemoteFile(remotePath)));
+    }
+
+    /**
+     * This method is used to delete a single remote file.
+     *
+     * @param remoteFilePath - remote file.
+     * @return [CompletableFuture] - summary with the deleted file, or the reason of the failure.
+     */
+    public CompletableFuture<TransferSummary> delete(String remoteFilePath) {
+        return submit(connection -> {
+            TransferSummary summary = new TransferSummary();
+            if (connection.deleteFile(remoteFilePath)) {
+                summary.recordSuccess(0);
+            } else {
+                summary.recordFailure(remoteFilePath, "Could not delete the file");
+            }
+            summary.finish();
+            return summary;
+        });
+    }
+
+    /**
+     * This method is used to delete a remote directory and everything in it, with one extra connection
+     * besides the pooled one, so that many deletes at once stay within the limits of the server.
+     *
+     * @param remoteDir - remote directory.
+     * @return [CompletableFuture] - summary with the deleted files and the paths that could not be deleted.
+     */
+    public CompletableFuture<TransferSummary> deleteDirectory(String remoteDir) {
+        return submit(connection -> connection.deleteDirectoryParallel(remoteDir, 1));
+    }
+
+    /**
+     * This method is used to rename or move a single remote path.
+     *
+     * @param oldName - the path you want to rename.
+     * @param newName - the new path.
+     * @return [CompletableFuture] - summary with the renamed path, or the reason of the failure.
+     */
+    public CompletableFuture<TransferSummary> rename(String oldName, String newName) {
+        return submit(connection -> {
+            TransferSummary summary = new TransferSummary();
+            if (connection.renameRemoteFile(oldName, newName)) {
+                summary.recordSuccess(0);
+            } else {
+                summary.recordFailure(oldName, "Could not rename it to " + newName);
+            }
+            summary.finish();
+            return summary;
+        });
+    }
+
+    /**
+     * @return [int] - number of operations waiting for a free thread.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * This method is used to stop taking operations, wait for the submitted ones, and close the pool
+     * if this instance created it.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Async operations still running on " + hostName + ", stopping them");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        if (ownsPool) {
+            pool.close();
+        }
+    }
+
+    private <T> void run(RemoteOperation<T> operation, CompletableFuture<T> future) {
+        RemoteConnection connection;
+        try {
+            connection = pool.borrow(protocol, hostName, userName, password);
+        } catch (FTPClientException e) {
+            future.completeExceptionally(new CompletionException(e));
+            return;
+        }
+        try {
+            T result = operation.run(connection);
+            pool.release(connection);
+            future.complete(result);
+        } catch (IOException | FTPClientException | RuntimeException e) {
+            if (connection.isConnected()) {
+                pool.release(connection);
+            } else {
+                logger.debug("Dropping broken connection to " + hostName + " : " + e.getMessage());
+                pool.invalidate(connection);
+            }
+            future.completeExceptionally(new CompletionException(e));
+        }
+    }
+}
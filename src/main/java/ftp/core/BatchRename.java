@@ -0,0 +1,351 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BatchRename class - renames or moves many remote paths with a small pool of connections.
+ *
+ * The sources are checked against one listing of every directory involved, instead of one existence check
+ * per file. A rename is refused if its source is missing, if its target already exists, or if two sources
+ * have the same target. A rename whose target is the source of another one (eg: app.1 to app.2 and app.2
+ * to app.3) waits until that other rename is done, so chains are run in the right order, and cycles are
+ * refused. The renames that are ready are run at once by the workers, every worker owning one connection.
+ *
+ * The connection of the caller is given as a fallback: if no worker connection can be opened (eg: the server
+ * limits the number of logins), or if the batch is too small to pay for new logins, the renames are run with
+ * it on the calling thread.
+ */
+class BatchRename {
+
+    private static final Logger logger = LogManager.getLogger(BatchRename.class);
+    private static final long POLL_MILLIS = 50;
+    // Batches up to this size are renamed with the fallback only, a rename costs less than a new login.
+    static final int SMALL_BATCH_RENAMES = 8;
+
+    /**
+     * DirectoryReader interface - lists a directory with the connection of the caller.
+     */
+    interface DirectoryReader {
+        /**
+         * @return [boolean] - false if the directory could not be listed.
+         */
+        boolean read(String remoteDir, RemoteEntryVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Renamer interface - one connection of a worker, or the connection of the caller.
+     */
+    interface Renamer extends Closeable {
+        /**
+         * @return [boolean] - true if the path was renamed.
+         */
+        boolean rename(String from, String to) throws IOException;
+    }
+
+    /**
+     * RenamerFactory interface - opens the connection of a worker.
+     */
+    interface RenamerFactory {
+        Renamer open() throws IOException;
+    }
+
+    private final DirectoryReader reader;
+    private final TransferSummary summary = new TransferSummary();
+    // Listing of every directory involved, by directory, null when the directory could not be listed.
+    private final Map<String, Map<String, RemoteFileEntry>> listings = new HashMap<>();
+    private final BlockingQueue<String[]> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger pendingRenames = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    private BatchRename(DirectoryReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * This method is used to rename every path of a mapping.
+     *
+     * @param renames - full source path to full target path.
+     * @param reader - lists the directories of the sources and of the targets.
+     * @param workers - number of extra connections that rename at once, 0 to use only the fallback.
+     * @param factory - opens the connection of every worker.
+     * @param fallback - connection of the caller, used when no worker is running. It is not closed.
+     * @param changedDirectories - called once for every directory whose content changed.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    static TransferSummary rename(Map<String, String> renames, DirectoryReader reader, int workers,
+                                  RenamerFactory factory, Renamer fallback, Consumer<String> changedDirectories) {
+        BatchRename batch = new BatchRename(reader);
+        return batch.run(renames, workers, factory, fallback, changedDirectories);
+    }
+
+    /**
+     * This method is used to rename every entry of a directory whose name matches a regular expression.
+     *
+     * @param remoteDir - directory that holds the entries.
+     * @param regex - found anywhere in the name, eg: ^(.*)\.log$
+     * @param replacement - new name, with $1 for the groups, eg: archive/$1-old.log. A relative name stays
+     *                    under remoteDir, so a '/' moves the entry to a subdirectory.
+     * @param reader - lists remoteDir and the directories of the targets.
+     * @param workers - number of extra connections that rename at once, 0 to use only the fallback.
+     * @param factory - opens the connection of every worker.
+     * @param fallback - connection of the caller, used when no worker is running. It is not closed.
+     * @param changedDirectories - called once for every directory whose content changed.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    static TransferSummary substitute(String remoteDir, String regex, String replacement, DirectoryReader reader,
+                                      int workers, RenamerFactory factory, Renamer fallback,
+                                      Consumer<String> changedDirectories) {
+        BatchRename batch = new BatchRename(reader);
+        Pattern pattern = Pattern.compile(regex);
+        Map<String, RemoteFileEntry> listing = batch.listing(normalize(remoteDir));
+        Map<String, String> renames = new LinkedHashMap<>();
+        if (listing == null) {
+            batch.summary.recordFailure(remoteDir, "Could not list the directory");
+        } else {
+            for (String name : listing.keySet()) {
+                Matcher matcher = pattern.matcher(name);
+                if (matcher.find()) {
+                    String newName = matcher.replaceAll(replacement);
+                    if (newName.equals(name)) {
+                        continue;
+                    }
+                    String target = newName.startsWith("/") ? newName : DirectorySync.remotePath(remoteDir, newName);
+                    renames.put(DirectorySync.remotePath(remoteDir, name), target);
+                }
+            }
+        }
+        return batch.run(renames, workers, factory, fallback, changedDirectories);
+    }
+
+    private TransferSummary run(Map<String, String> requested, int workers, RenamerFactory factory, Renamer fallback,
+                                Consumer<String> changedDirectories) {
+        Map<String, String> renames = validate(requested);
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            changed.add(parentOf(rename.getKey()));
+            changed.add(parentOf(rename.getValue()));
+        }
+        if (!renames.isEmpty()) {
+            int workerCount = renames.size() <= SMALL_BATCH_RENAMES ? 0 : Math.min(workers, renames.size());
+            ExecutorService executor = null;
+            if (workerCount > 0) {
+                executor = Executors.newFixedThreadPool(workerCount);
+                for (int i = 0; i < workerCount; i++) {
+                    executor.submit(() -> work(factory));
+                }
+                executor.shutdown();
+            }
+            try {
+                runInOrder(renames, executor, fallback);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.set(true);
+            }
+            if (executor != null) {
+                try {
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (String[] rename = queue.poll(); rename != null; rename = queue.poll()) {
+                summary.recordFailure(rename[0], "No connection available to rename the path");
+            }
+            changed.forEach(changedDirectories);
+        }
+        summary.finish();
+        logger.info("Renamed " + summary.getFilesTransferred() + " path(s), " + summary.getFailures().size() + " failed");
+        return summary;
+    }
+
+    /**
+     * This method is used to check every rename against the listings, and to record the failures.
+     *
+     * @return [Map] - the renames that can be run.
+     */
+    private Map<String, String> validate(Map<String, String> requested) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Map.Entry<String, String> rename : requested.entrySet()) {
+            sources.put(normalize(rename.getKey()), normalize(rename.getValue()));
+        }
+        Map<String, String> renames = new LinkedHashMap<>();
+        Set<String> targets = new HashSet<>();
+        for (Map.Entry<String, String> rename : sources.entrySet()) {
+            String source = rename.getKey();
+            String target = rename.getValue();
+            Map<String, RemoteFileEntry> sourceListing = listing(parentOf(source));
+            Map<String, RemoteFileEntry> targetListing = listing(parentOf(target));
+            if (sourceListing == null || !sourceListing.containsKey(nameOf(source))) {
+                summary.recordFailure(source, "Source does not exist");
+            } else if (targetListing == null) {
+                summary.recordFailure(source, "Target directory " + parentOf(target) + " does not exist");
+            } else if (target.equals(source)) {
+                summary.recordFailure(source, "Source and target are the same");
+            } else if (!targets.add(target)) {
+                summary.recordFailure(source, "Another path is renamed to " + target);
+            } else if (targetListing.containsKey(nameOf(target)) && !sources.containsKey(target)) {
+                summary.recordFailure(source, target + " already exists");
+            } else {
+                renames.put(source, target);
+            }
+        }
+        // A target that is still occupied by a source that will not be renamed can never be freed.
+        boolean removed = true;
+        while (removed) {
+            removed = renames.entrySet().removeIf(rename -> {
+                String target = rename.getValue();
+                boolean blocked = listing(parentOf(target)).containsKey(nameOf(target)) && !renames.containsKey(target);
+                if (blocked) {
+                    summary.recordFailure(rename.getKey(), target + " already exists");
+                }
+                return blocked;
+            });
+        }
+        return renames;
+    }
+
+    /**
+     * This method is used to run the renames in waves, a rename waits until the source that holds its target was moved.
+     * When no worker is running (or none was started), the renames that are left are run with the fallback
+     * connection on the calling thread.
+     */
+    private void runInOrder(Map<String, String> renames, ExecutorService executor, Renamer fallback) throws InterruptedException {
+        Map<String, String> remaining = new LinkedHashMap<>(renames);
+        while (!remaining.isEmpty()) {
+            Map<String, String> ready = new LinkedHashMap<>();
+            for (Map.Entry<String, String> rename : remaining.entrySet()) {
+                if (!remaining.containsKey(rename.getValue())) {
+                    ready.put(rename.getKey(), rename.getValue());
+                }
+            }
+            if (ready.isEmpty()) {
+                for (String source : remaining.keySet()) {
+                    summary.recordFailure(source, "Renames form a cycle");
+                }
+                return;
+            }
+            for (Map.Entry<String, String> rename : ready.entrySet()) {
+                pendingRenames.incrementAndGet();
+                queue.add(new String[]{rename.getKey(), rename.getValue()});
+                remaining.remove(rename.getKey());
+            }
+            while (pendingRenames.get() > 0) {
+                if (executor == null || executor.isTerminated()) {
+                    if (fallback == null) {
+                        for (String source : remaining.keySet()) {
+                            summary.recordFailure(source, "No connection available to rename the path");
+                        }
+                        return;
+                    }
+                    // No worker takes renames anymore, so the queue only changes on this thread.
+                    for (String[] rename = queue.poll(); rename != null; rename = queue.poll()) {
+                        runRename(fallback, rename);
+                    }
+                    break;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+            // A failed rename still holds the target of the renames that wait for it.
+            Set<String> failed = summary.getFailures().keySet();
+            boolean removed = true;
+            while (removed) {
+                removed = remaining.entrySet().removeIf(rename -> {
+                    boolean blocked = failed.contains(rename.getValue());
+                    if (blocked) {
+                        summary.recordFailure(rename.getKey(), rename.getValue() + " could not be moved away");
+                    }
+                    return blocked;
+                });
+            }
+        }
+    }
+
+    private void work(RenamerFactory factory) {
+        try (Renamer renamer = factory.open()) {
+            while (!finished.get()) {
+                String[] rename = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (rename != null) {
+                    runRename(renamer, rename);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not open a rename connection : " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runRename(Renamer renamer, String[] rename) {
+        try {
+            if (renamer.rename(rename[0], rename[1])) {
+                RemoteFileEntry entry = listing(parentOf(rename[0])).get(nameOf(rename[0]));
+                summary.recordSuccess(entry.isDirectory() ? 0 : entry.getSize());
+            } else {
+                summary.recordFailure(rename[0], "Server refused to rename it to " + rename[1]);
+            }
+        } catch (IOException e) {
+            summary.recordFailure(rename[0], e.getMessage());
+        } finally {
+            pendingRenames.decrementAndGet();
+        }
+    }
+
+    /**
+     * This method is used to list a directory once, later calls return the same listing.
+     *
+     * @return [Map] - entries by name, or null if the directory could not be listed.
+     */
+    private synchronized Map<String, RemoteFileEntry> listing(String remoteDir) {
+        if (!listings.containsKey(remoteDir)) {
+            Map<String, RemoteFileEntry> entries = new HashMap<>();
+            try {
+                boolean listed = reader.read(remoteDir, entry -> {
+                    entries.put(entry.getPath(), entry);
+                    return true;
+                });
+                listings.put(remoteDir, listed ? entries : null);
+            } catch (IOException e) {
+                logger.error("Error while listing " + remoteDir + " : " + e.getMessage());
+                listings.put(remoteDir, null);
+            }
+        }
+        return listings.get(remoteDir);
+    }
+
+    private static String normalize(String remotePath) {
+        String path = remotePath;
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static String parentOf(String remotePath) {
+        int slash = remotePath.lastIndexOf('/');
+        return slash > 0 ? remotePath.substring(0, slash) : slash == 0 ? "/" : ".";
+    }
+
+    private static String nameOf(String remotePath) {
+        return remotePath.substring(remotePath.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,45 @@
+package ftp.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressionStats class - counts the bytes that went through on-the-wire compression, before and after
+ * compression, so that the achieved ratio can be reported. All the methods are thread safe.
+ */
+public class CompressionStats {
+
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * This method is used to record one compressed transfer or packet.
+     *
+     * @param uncompressed - size of the data.
+     * @param compressed - size of the data on the wire.
+     */
+    public void record(long uncompressed, long compressed) {
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return [double] - uncompressed size divided by compressed size, eg: 8.0 for 8x, or 1.0 if nothing was compressed.
+     */
+    public double getRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 1.0 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes sent as %d bytes (%.1fx)", getUncompressedBytes(), getCompressedBytes(), getRatio());
+    }
+}
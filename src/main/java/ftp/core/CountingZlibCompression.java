@@ -0,0 +1,53 @@
+package ftp.core;
+
+import com.jcraft.jsch.Compression;
+
+/**
+ * CountingZlibCompression class - the zlib compression of JSch, that also counts the bytes before and
+ * after compression. JSch creates the compression by class name for every session, so the counts of
+ * all compressed SSH sessions of the JVM go to one shared CompressionStats.
+ */
+public class CountingZlibCompression implements Compression {
+
+    static final CompressionStats SSH_STATS = new CompressionStats();
+
+    /**
+     * @return [boolean] - true if the zlib library that JSch compresses with (jzlib, an optional
+     * dependency of JSch) can be loaded.
+     */
+    static boolean isAvailable() {
+        try {
+            Class.forName("com.jcraft.jzlib.ZStream");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private final Compression delegate = new com.jcraft.jsch.jcraft.Compression();
+
+    @Override
+    public void init(int type, int level) {
+        delegate.init(type, level);
+    }
+
+    @Override
+    public byte[] compress(byte[] buf, int start, int[] len) {
+        // len holds the end of the data on input and on output, the packet header before start is not compressed.
+        int uncompressed = len[0] - start;
+        byte[] result = delegate.compress(buf, start, len);
+        SSH_STATS.record(uncompressed, len[0] - start);
+        return result;
+    }
+
+    @Override
+    public byte[] uncompress(byte[] buffer, int start, int[] length) {
+        // length holds the size of the data, after start, on input and on output.
+        int compressed = length[0];
+        byte[] result = delegate.uncompress(buffer, start, length);
+        if (result != null) {
+            SSH_STATS.record(length[0], compressed);
+        }
+        return result;
+    }
+}
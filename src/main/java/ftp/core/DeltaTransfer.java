@@ -0,0 +1,310 @@
+package ftp.core;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+/**
+ * DeltaTransfer class - rsync style delta encoding, used to update a large remote file by sending only
+ * the parts that changed.
+ *
+ * A helper script on the server splits the existing remote copy in blocks and prints an Adler-32 and an
+ * MD5 checksum for every block. The local file is scanned with a rolling Adler-32, so a block is found
+ * at any offset, and the MD5 confirms the match. The delta is a stream of block references and literal
+ * data, that the same script applies to rebuild the file on the server.
+ */
+class DeltaTransfer {
+
+    private static final int MIN_BLOCK_SIZE = 8 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    // Literal data is sent in chunks of this size, so it never has to be held in memory.
+    private static final int LITERAL_CHUNK_SIZE = 64 * 1024;
+    private static final int ADLER_MODULUS = 65521;
+
+    static final byte OP_COPY_BLOCK = 'C';
+    static final byte OP_LITERAL = 'L';
+    static final byte OP_END = 'E';
+
+    /**
+     * Python helper run on the server.
+     * "stat PATH BLOCK_SIZE" prints "size mtime realpath" of the file, as the shell of the exec channel sees it.
+     * "sig PATH BLOCK_SIZE" prints the file size, then "adler32 md5" for every full block.
+     * "patch PATH BLOCK_SIZE" reads a delta on stdin, writes the new file next to PATH, moves it over PATH
+     * and prints the MD5 of the new file.
+     */
+    static final String HELPER_SCRIPT = String.join("\n",
+            "import sys, os, struct, hashlib, zlib",
+            "mode, path, bs = sys.argv[1], sys.argv[2], int(sys.argv[3])",
+            "if mode == 'stat':",
+            "    st = os.stat(path)",
+            "    print('%d %d %s' % (st.st_size, int(st.st_mtime), os.path.realpath(path)))",
+            "elif mode == 'sig':",
+            "    out = sys.stdout",
+            "    out.write('%d\\n' % os.path.getsize(path))",
+            "    with open(path, 'rb') as f:",
+            "        while True:",
+            "            d = f.read(bs)",
+            "            if len(d) < bs:",
+            "                break",
+            "            out.write('%d %s\\n' % (zlib.adler32(d) & 0xffffffff, hashlib.md5(d).hexdigest()))",
+            "else:",
+            "    inp = sys.stdin.buffer",
+            "    def take(n):",
+            "        buf = b''",
+            "        while len(buf) < n:",
+            "            chunk = inp.read(n - len(buf))",
+            "            if not chunk:",
+            "                raise EOFError('delta ended early')",
+            "            buf += chunk",
+            "        return buf",
+            "    tmp = path + '.delta-part'",
+            "    h = hashlib.md5()",
+            "    with open(path, 'rb') as src, open(tmp, 'wb') as dst:",
+            "        while True:",
+            "            op = take(1)",
+            "            if op == b'C':",
+            "                src.seek(struct.unpack('>I', take(4))[0] * bs)",
+            "                d = src.read(bs)",
+            "            elif op == b'L':",
+            "                d = take(struct.unpack('>I', take(4))[0])",
+            "            else:",
+            "                break",
+            "            dst.write(d)",
+            "            h.update(d)",
+            "    os.chmod(tmp, os.stat(path).st_mode & 0o7777)",
+            "    os.replace(tmp, path)",
+            "    print(h.hexdigest())");
+
+    private DeltaTransfer() {
+    }
+
+    /**
+     * BlockSignature class - checksums of one block of the remote file.
+     */
+    static class BlockSignature {
+        final int index;
+        final byte[] md5;
+
+        BlockSignature(int index, byte[] md5) {
+            this.index = index;
+            this.md5 = md5;
+        }
+    }
+
+    /**
+     * DeltaResult class - what was sent to rebuild the file.
+     */
+    static class DeltaResult {
+        long literalBytes = 0;
+        long matchedBlocks = 0;
+        String md5;
+    }
+
+    /**
+     * @param fileSize - size of the remote file.
+     * @return [int] - block size close to the square root of the size, as rsync does, within 8 KB and 1 MB.
+     */
+    static int chooseBlockSize(long fileSize) {
+        long size = (long) Math.sqrt((double) fileSize);
+        size = (size + 1023) / 1024 * 1024;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * This method is used to check that the shell of the exec channel and the SFTP subsystem see the same
+     * file. They can differ, eg: when the SFTP subsystem is chrooted or forced with ForceCommand, and then
+     * the helper would read and patch another file than the one the SFTP side checked.
+     *
+     * @param statOutput - text printed by the "stat" mode of the helper script.
+     * @param sftpRealPath - real path of the file, resolved by the SFTP subsystem.
+     * @param size - size of the file, seen by the SFTP subsystem.
+     * @param modifiedTime - modification time in seconds, seen by the SFTP subsystem.
+     * @return [boolean] - true if the path, size and modification time are the same on both sides.
+     */
+    static boolean isSameFile(String statOutput, String sftpRealPath, long size, long modifiedTime) {
+        String[] parts = statOutput.trim().split(" ", 3);
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            return parts[2].equals(sftpRealPath) && Long.parseLong(parts[0]) == size && Long.parseLong(parts[1]) == modifiedTime;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method is used to read the output of the "sig" mode of the helper script.
+     *
+     * @param output - text printed by the script.
+     * @return [Map] - signatures of the blocks, by Adler-32 checksum.
+     * @throws IOException - if the output is not valid.
+     */
+    static Map<Integer, List<BlockSignature>> parseSignatures(String output) throws IOException {
+        Map<Integer, List<BlockSignature>> signatures = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new StringReader(output));
+        if (reader.readLine() == null) {
+            throw new IOException("Empty block signature list");
+        }
+        String line;
+        int index = 0;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 2) {
+                throw new IOException("Invalid block signature : " + line);
+            }
+            int adler = (int) Long.parseLong(parts[0]);
+            signatures.computeIfAbsent(adler, key -> new ArrayList<>(1)).add(new BlockSignature(index++, hexToBytes(parts[1])));
+        }
+        return signatures;
+    }
+
+    /**
+     * This method is used to scan the local file and write the delta against the remote block signatures.
+     * The MD5 of the whole local file is calculated in the same pass.
+     *
+     * @param localFile - new version of the file.
+     * @param blockSize - block size of the signatures.
+     * @param signatures - signatures of the remote file.
+     * @param output - receives the delta.
+     * @return [DeltaResult] - literal bytes, matched blocks and MD5 of the local file.
+     * @throws IOException
+     */
+    static DeltaResult writeDelta(File localFile, int blockSize, Map<Integer, List<BlockSignature>> signatures,
+                                  OutputStream output) throws IOException {
+        MessageDigest fileDigest = md5();
+        MessageDigest blockDigest = md5();
+        DataOutputStream delta = new DataOutputStream(output);
+        DeltaResult result = new DeltaResult();
+        byte[] buffer = new byte[2 * blockSize + 2 * LITERAL_CHUNK_SIZE];
+        // buffer[literalStart, start) is literal data not sent yet, buffer[start, end) is not scanned yet.
+        int literalStart = 0;
+        int start = 0;
+        int end = 0;
+        boolean endOfFile = false;
+        boolean rolling = false;
+        int a = 0;
+        int b = 0;
+        try (InputStream input = LocalFileChannels.openInput(localFile)) {
+            while (true) {
+                if (end - start <= blockSize && !endOfFile) {
+                    // Keep the pending literal data, and make room for at least one more block.
+                    System.arraycopy(buffer, literalStart, buffer, 0, end - literalStart);
+                    start -= literalStart;
+                    end -= literalStart;
+                    literalStart = 0;
+                    int read = input.read(buffer, end, buffer.length - end);
+                    if (read < 0) {
+                        endOfFile = true;
+                    } else {
+                        end += read;
+                    }
+                    continue;
+                }
+                if (end - start < blockSize) {
+                    break;
+                }
+                if (!rolling) {
+                    Adler32 adler32 = new Adler32();
+                    adler32.update(buffer, start, blockSize);
+                    int value = (int) adler32.getValue();
+                    a = value & 0xffff;
+                    b = value >>> 16;
+                    rolling = true;
+                }
+                int match = findBlock(signatures.get((b << 16) | a), blockDigest, buffer, start, blockSize);
+                if (match >= 0) {
+                    writeLiteral(delta, fileDigest, buffer, literalStart, start - literalStart, result);
+                    delta.writeByte(OP_COPY_BLOCK);
+                    delta.writeInt(match);
+                    fileDigest.update(buffer, start, blockSize);
+                    result.matchedBlocks++;
+                    start += blockSize;
+                    literalStart = start;
+                    rolling = false;
+                    continue;
+                }
+                if (end - start == blockSize) {
+                    // Last window of the file, the remaining bytes are sent as literal data.
+                    break;
+                }
+                int out = buffer[start] & 0xff;
+                int in = buffer[start + blockSize] & 0xff;
+                a = Math.floorMod(a - out + in, ADLER_MODULUS);
+                b = Math.floorMod(b - blockSize * out + a - 1, ADLER_MODULUS);
+                start++;
+                if (start - literalStart >= LITERAL_CHUNK_SIZE) {
+                    writeLiteral(delta, fileDigest, buffer, literalStart, start - literalStart, result);
+                    literalStart = start;
+                }
+            }
+        }
+        writeLiteral(delta, fileDigest, buffer, literalStart, end - literalStart, result);
+        delta.writeByte(OP_END);
+        delta.flush();
+        result.md5 = bytesToHex(fileDigest.digest());
+        return result;
+    }
+
+    private static int findBlock(List<BlockSignature> candidates, MessageDigest blockDigest, byte[] buffer, int start, int length) {
+        if (candidates == null) {
+            return -1;
+        }
+        blockDigest.update(buffer, start, length);
+        byte[] md5 = blockDigest.digest();
+        for (BlockSignature candidate : candidates) {
+            if (Arrays.equals(candidate.md5, md5)) {
+                return candidate.index;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeLiteral(DataOutputStream delta, MessageDigest fileDigest, byte[] buffer, int offset, int length,
+                                     DeltaResult result) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        delta.writeByte(OP_LITERAL);
+        delta.writeInt(length);
+        delta.write(buffer, offset, length);
+        fileDigest.update(buffer, offset, length);
+        result.literalBytes += length;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : bytes) {
+            hex.append(String.format("%02x", value));
+        }
+        return hex.toString();
+    }
+}
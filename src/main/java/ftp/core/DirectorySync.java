@@ -0,0 +1,197 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * DirectorySync class - the protocol independent part of RemoteConnection.sync(). Both trees are listed
+ * once, compared by size and modification time, and only the files that differ are transferred.
+ * The protocol specific operations are provided by a Transport.
+ */
+class DirectorySync {
+
+    private static final Logger logger = LogManager.getLogger(DirectorySync.class);
+    // Servers keep modification times in whole seconds, so smaller differences do not count as a change.
+    private static final long TIME_TOLERANCE_MILLIS = 1000;
+
+    /**
+     * Transport interface - the remote operations a sync needs. Remote paths are relative to the remote root.
+     */
+    interface Transport {
+        Map<String, RemoteFileEntry> listRemoteTree() throws IOException;
+
+        void makeRemoteDirectory(String path) throws IOException;
+
+        void upload(File localFile, String path, long modifiedTime) throws IOException;
+
+        void download(String path, File localFile, long modifiedTime) throws IOException;
+
+        void deleteRemote(RemoteFileEntry entry) throws IOException;
+    }
+
+    private DirectorySync() {
+    }
+
+    /**
+     * This method is used to make the destination tree match the source tree.
+     *
+     * @param localDir - root of the local tree.
+     * @param direction - PUSH to update the remote tree, PULL to update the local tree.
+     * @param deleteExtraneous - true to delete destination entries that do not exist in the source.
+     * @param dryRun - true to only print what would be done.
+     * @param transport - remote operations of the connection.
+     * @return [TransferSummary] - the files that were (or would be) transferred, and the failures.
+     * @throws FTPClientException - if one of the trees can not be listed.
+     */
+    static TransferSummary sync(String localDir, SyncDirection direction, boolean deleteExtraneous, boolean dryRun,
+                                Transport transport) throws FTPClientException {
+        File localRoot = new File(localDir);
+        if (direction == SyncDirection.PULL && !dryRun) {
+            localRoot.mkdirs();
+        }
+        Map<String, RemoteFileEntry> localTree;
+        Map<String, RemoteFileEntry> remoteTree;
+        try {
+            localTree = listLocalTree(localRoot);
+            remoteTree = transport.listRemoteTree();
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+        boolean push = direction == SyncDirection.PUSH;
+        Map<String, RemoteFileEntry> source = push ? localTree : remoteTree;
+        Map<String, RemoteFileEntry> destination = push ? remoteTree : localTree;
+        String prefix = dryRun ? "[dry-run] " : "";
+        TransferSummary summary = new TransferSummary();
+
+        // Sorted paths put every directory before its content.
+        for (RemoteFileEntry entry : source.values()) {
+            RemoteFileEntry existing = destination.get(entry.getPath());
+            try {
+                if (entry.isDirectory()) {
+                    if (existing == null) {
+                        System.out.println(prefix + "Create directory " + entry.getPath());
+                        if (!dryRun) {
+                            makeDirectory(entry, localRoot, push, transport);
+                        }
+                    } else if (!existing.isDirectory()) {
+                        summary.recordFailure(entry.getPath(), "Is a directory in the source and a file in the destination");
+                    }
+                } else if (existing != null && existing.isDirectory()) {
+                    summary.recordFailure(entry.getPath(), "Is a file in the source and a directory in the destination");
+                } else if (hasChanged(entry, existing)) {
+                    System.out.println(prefix + (push ? "Upload " : "Download ") + entry);
+                    if (!dryRun) {
+                        File localFile = new File(localRoot, entry.getPath());
+                        if (push) {
+                            transport.upload(localFile, entry.getPath(), entry.getModifiedTime());
+                        } else {
+                            transport.download(entry.getPath(), localFile, entry.getModifiedTime());
+                        }
+                    }
+                    summary.recordSuccess(entry.getSize());
+                }
+            } catch (IOException e) {
+                summary.recordFailure(entry.getPath(), e.getMessage());
+            }
+        }
+
+        if (deleteExtraneous) {
+            List<RemoteFileEntry> extraneous = new ArrayList<>();
+            for (RemoteFileEntry entry : destination.values()) {
+                if (!source.containsKey(entry.getPath())) {
+                    extraneous.add(entry);
+                }
+            }
+            // Reverse order deletes the content of a directory before the directory.
+            Collections.reverse(extraneous);
+            for (RemoteFileEntry entry : extraneous) {
+                System.out.println(prefix + "Delete " + entry);
+                if (dryRun) {
+                    continue;
+                }
+                try {
+                    if (push) {
+                        transport.deleteRemote(entry);
+                    } else if (!new File(localRoot, entry.getPath()).delete()) {
+                        throw new IOException("Could not delete local " + entry.getPath());
+                    }
+                } catch (IOException e) {
+                    summary.recordFailure(entry.getPath(), e.getMessage());
+                }
+            }
+        }
+        summary.finish();
+        logger.info(prefix + "Sync " + direction + " of " + localDir + " done, "
+                + summary.getFilesTransferred() + " file(s) transferred");
+        return summary;
+    }
+
+    /**
+     * @param source - entry of the source tree.
+     * @param destination - entry with the same path in the destination tree, or null.
+     * @return [boolean] - true if the destination is missing, or differs in size or modification time.
+     */
+    static boolean hasChanged(RemoteFileEntry source, RemoteFileEntry destination) {
+        if (destination == null || source.getSize() != destination.getSize()) {
+            return true;
+        }
+        if (source.getModifiedTime() == RemoteFileEntry.UNKNOWN_TIME || destination.getModifiedTime() == RemoteFileEntry.UNKNOWN_TIME) {
+            return false;
+        }
+        return Math.abs(source.getModifiedTime() - destination.getModifiedTime()) > TIME_TOLERANCE_MILLIS;
+    }
+
+    /**
+     * This method is used to list a local tree, in the same form as a remote tree.
+     *
+     * @param localRoot - root of the tree.
+     * @return [Map] - entries sorted by relative path, empty if the root does not exist.
+     * @throws IOException
+     */
+    static Map<String, RemoteFileEntry> listLocalTree(File localRoot) throws IOException {
+        Map<String, RemoteFileEntry> tree = new TreeMap<>();
+        if (!localRoot.isDirectory()) {
+            return tree;
+        }
+        Path rootPath = localRoot.toPath();
+        try (Stream<Path> paths = Files.walk(rootPath)) {
+            paths.filter(path -> !path.equals(rootPath)).forEach(path -> {
+                String relative = rootPath.relativize(path).toString().replace(File.separatorChar, '/');
+                File file = path.toFile();
+                boolean directory = file.isDirectory();
+                tree.put(relative, new RemoteFileEntry(relative, directory ? 0 : file.length(), file.lastModified(), directory));
+            });
+        }
+        return tree;
+    }
+
+    /**
+     * @param parent - remote directory, with or without a trailing '/'.
+     * @param relativePath - path relative to parent.
+     * @return [String] - the joined remote path.
+     */
+    static String remotePath(String parent, String relativePath) {
+        return parent.endsWith("/") ? parent + relativePath : parent + "/" + relativePath;
+    }
+
+    private static void makeDirectory(RemoteFileEntry entry, File localRoot, boolean push, Transport transport) throws IOException {
+        if (push) {
+            transport.makeRemoteDirectory(entry.getPath());
+        } else {
+            Path directory = Paths.get(localRoot.getPath(), entry.getPath());
+            Files.createDirectories(directory);
+        }
+    }
+}
@@ -1,18 +1,46 @@
 package ftp.core;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPFileFilter;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.io.CopyStreamAdapter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static ftp.core.FTPUtils.getFileNameFromRemote;
 
@@ -26,6 +54,41 @@ public class FTPConnection implements RemoteConnection {
     private FTPClient client;
     private static final Logger logger = LogManager.getLogger(FTPClient.class);
 
+    // Number of files copied at once by copyDirectory.
+    private static final int COPY_PARALLELISM = 4;
+    // Number of connections that list directories at once in searchTree.
+    private static final int SEARCH_PARALLELISM = 4;
+    // Number of connections that delete files at once in deleteDirectory.
+    private static final int DELETE_PARALLELISM = 4;
+    // Number of connections that rename at once in renameRemoteFiles.
+    private static final int RENAME_PARALLELISM = 4;
+    // Marker put on a copy queue to tell a worker that no more files will arrive.
+    private static final String[] END_OF_COPY_QUEUE = new String[0];
+    private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+    // Entries parsed at once by a streamed listing.
+    private static final int LISTING_PAGE_SIZE = 1000;
+
+    // Kept after a successful login, so that parallel operations can open more connections to the same server.
+    private String hostName;
+    private String userName;
+    private String password;
+    // Settings used by connect, null to use the profile configured for the host.
+    private TransferProfile transferProfile = null;
+    // Opt in MODE Z (deflate) transfers, and whether the server is currently in MODE Z.
+    private boolean compressionEnabled = false;
+    private boolean deflateModeActive = false;
+    private final CompressionStats compressionStats = new CompressionStats();
+    // Remote paths known to exist, shared with the sibling connections.
+    private RemoteMetadataCache metadataCache = new RemoteMetadataCache();
+    // Listings of remote trees kept between runs, null to list the trees completely every time.
+    private RemoteTreeManifest remoteTreeManifest = null;
+    // Features announced by FEAT, asked once per server and shared by all the connections to it.
+    private static final Map<String, Set<String>> FEATURES_BY_SERVER = new ConcurrentHashMap<>();
+    private Set<String> serverFeatures = Collections.emptySet();
+    // Set when the server announces MLST. Listings then use MLSD and single paths MLST,
+    // otherwise they fall back to LIST, that has no exact timestamps, and to CWD.
+    private boolean mlsdSupported = false;
+
     /**
      * This method is used to make connection with the FTP remote server.
      *
@@ -39,11 +102,21 @@ public class FTPConnection implements RemoteConnection {
     public int connect(String hostName, String userName, String password) {
         try {
             client = new FTPClient();
-            client.connect(hostName, 21);
+            if (transferProfile == null) {
+                transferProfile = TransferProfile.forHost(hostName);
+            }
+            applyTransferProfile();
+            int port = TransferProfile.portForHost("FTP", hostName, 21);
+            client.connect(hostName, port);
+            client.setTcpNoDelay(transferProfile.isTcpNoDelay());
             boolean login = client.login(userName, password);
             if (login) {
+                this.hostName = hostName;
+                this.userName = userName;
+                this.password = password;
                 client.enterLocalPassiveMode();
                 client.setFileType(org.apache.commons.net.ftp.FTP.BINARY_FILE_TYPE);
+                loadServerFeatures(hostName + ":" + port);
                 return 1;
             } else {
                 System.err.println("Username or password is incorrect");
@@ -57,6 +130,45 @@ public class FTPConnection implements RemoteConnection {
         return 2;
     }
 
+    /**
+     * This method is used to read the features of the server with FEAT, the first time this server is seen.
+     *
+     * @param serverKey - host and port of the server.
+     * @throws IOException
+     */
+    private void loadServerFeatures(String serverKey) throws IOException {
+        Set<String> features = FEATURES_BY_SERVER.get(serverKey);
+        if (features == null) {
+            features = new HashSet<>();
+            if (client.features()) {
+                String[] replyLines = client.getReplyStrings();
+                // The first and the last lines are the 211 reply, the features are in between.
+                for (int i = 1; i < replyLines.length - 1; i++) {
+                    features.add(replyLines[i].trim().toUpperCase());
+                }
+            } else {
+                logger.info("Server does not support FEAT, using LIST for listings");
+            }
+            FEATURES_BY_SERVER.put(serverKey, features);
+        }
+        serverFeatures = features;
+        mlsdSupported = hasServerFeature("MLST");
+    }
+
+    /**
+     * @param feature - feature name, eg: MLST, MFMT or "MODE Z".
+     * @return [boolean] - true if the server announced the feature in its FEAT reply.
+     */
+    public boolean hasServerFeature(String feature) {
+        String name = feature.toUpperCase();
+        for (String serverFeature : serverFeatures) {
+            if (serverFeature.equals(name) || serverFeature.startsWith(name + " ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * This method is used to disconnect from the remote FTP server
      */
@@ -69,6 +181,183 @@ public class FTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to choose the socket and buffer settings of the next connect.
+     *
+     * @param transferProfile - settings to use, null to use the profile configured for the host.
+     */
+    @Override
+    public void setTransferProfile(TransferProfile transferProfile) {
+        this.transferProfile = transferProfile;
+    }
+
+    /**
+     * This method is used to turn MODE Z transfers on or off. When it is on, files are deflated on the wire,
+     * except the files that are already compressed, like .gz, .zip, .jpg or .mp4.
+     *
+     * @param compressionEnabled - true to compress the transfers the server supports.
+     */
+    @Override
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * @return [CompressionStats] - bytes before and after compression, for the MODE Z transfers of this connection.
+     */
+    @Override
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * This method is used to put the server in MODE Z for files that are worth compressing. MODE Z also
+     * applies to the data connections of LIST, NLST and MLSD, so every compressed transfer must be followed
+     * by restoreStreamMode(). If the server refuses MODE Z, compression is turned off for this connection.
+     *
+     * @param fileName - name of the file about to be transferred.
+     * @return [boolean] - true if the transfer must be deflated.
+     * @throws IOException
+     */
+    private boolean prepareTransferMode(String fileName) throws IOException {
+        boolean deflate = compressionEnabled && FTPUtils.isCompressible(fileName);
+        if (deflate && !deflateModeActive) {
+            if (!FTPReply.isPositiveCompletion(client.sendCommand("MODE", "Z"))) {
+                logger.info("Server does not support MODE Z, transfers will not be compressed");
+                compressionEnabled = false;
+                return false;
+            }
+            deflateModeActive = true;
+        } else if (!deflate && deflateModeActive) {
+            restoreStreamMode();
+        }
+        return deflate;
+    }
+
+    /**
+     * This method is used to put the server back in MODE S after a compressed transfer, so that the next
+     * listings are not deflated.
+     */
+    private void restoreStreamMode() {
+        if (!deflateModeActive) {
+            return;
+        }
+        try {
+            if (FTPReply.isPositiveCompletion(client.sendCommand("MODE", "S"))) {
+                deflateModeActive = false;
+            } else {
+                logger.error("Server refused to leave MODE Z : " + client.getReplyString().trim());
+            }
+        } catch (IOException e) {
+            logger.debug("Could not send MODE S : " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method is used to store a file, deflated on the wire when compression is enabled.
+     *
+     * @param remoteFilePath - remote path of the file.
+     * @param fileName - name of the local file, used to skip the files that are already compressed.
+     * @param inputStream - content of the file.
+     * @return [boolean] - true if the server stored the file.
+     * @throws IOException
+     */
+    private boolean storeFile(String remoteFilePath, String fileName, InputStream inputStream) throws IOException {
+        if (!prepareTransferMode(fileName)) {
+            return client.storeFile(remoteFilePath, inputStream);
+        }
+        try {
+            OutputStream dataStream = client.storeFileStream(remoteFilePath);
+            if (dataStream == null) {
+                return false;
+            }
+            CountingOutputStream wireStream = new CountingOutputStream(dataStream);
+            Deflater deflater = new Deflater();
+            long uncompressed;
+            try (OutputStream outputStream = new DeflaterOutputStream(wireStream, deflater, DEFLATE_BUFFER_SIZE)) {
+                uncompressed = IOUtils.copyLarge(inputStream, outputStream);
+            } finally {
+                deflater.end();
+            }
+            boolean stored = client.completePendingCommand();
+            if (stored) {
+                compressionStats.record(uncompressed, wireStream.getByteCount());
+            }
+            return stored;
+        } finally {
+            restoreStreamMode();
+        }
+    }
+
+    /**
+     * This method is used to retrieve a file, inflated from the wire when compression is enabled.
+     *
+     * @param remoteFilePath - remote path of the file.
+     * @param outputStream - receives the content of the file.
+     * @return [boolean] - true if the server sent the whole file.
+     * @throws IOException
+     */
+    private boolean retrieveFile(String remoteFilePath, OutputStream outputStream) throws IOException {
+        if (!prepareTransferMode(getFileNameFromRemote(remoteFilePath))) {
+            return client.retrieveFile(remoteFilePath, outputStream);
+        }
+        try {
+            InputStream dataStream = client.retrieveFileStream(remoteFilePath);
+            if (dataStream == null) {
+                return false;
+            }
+            CountingInputStream wireStream = new CountingInputStream(dataStream);
+            Inflater inflater = new Inflater();
+            long uncompressed;
+            try (InputStream inputStream = new InflaterInputStream(wireStream, inflater, DEFLATE_BUFFER_SIZE)) {
+                uncompressed = IOUtils.copyLarge(inputStream, outputStream);
+            } finally {
+                inflater.end();
+            }
+            boolean retrieved = client.completePendingCommand();
+            if (retrieved) {
+                compressionStats.record(uncompressed, wireStream.getByteCount());
+            }
+            return retrieved;
+        } finally {
+            restoreStreamMode();
+        }
+    }
+
+    /**
+     * This method is used to set the socket buffers and the copy buffer of the client. They must be set
+     * before connect, because commons-net applies them to every socket it opens, data sockets included.
+     */
+    private void applyTransferProfile() throws SocketException {
+        if (transferProfile.getSendBufferSize() > 0) {
+            client.setSendBufferSize(transferProfile.getSendBufferSize());
+        }
+        if (transferProfile.getReceiveBufferSize() > 0) {
+            client.setReceiveBufferSize(transferProfile.getReceiveBufferSize());
+        }
+        if (transferProfile.getCopyBufferSize() > 0) {
+            client.setBufferSize(transferProfile.getCopyBufferSize());
+        }
+    }
+
+    /**
+     * This method is used to check if the connection is still usable, with a NOOP round trip.
+     *
+     * @return [boolean] - true if the connection is alive.
+     */
+    @Override
+    public boolean isConnected() {
+        if (client == null || !client.isConnected()) {
+            return false;
+        }
+        try {
+            return client.sendNoOp();
+        } catch (IOException e) {
+            logger.debug("Connection check failed : " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * This method is used to create new Directory on remote FTP server.
      *
@@ -79,8 +368,8 @@ public class FTPConnection implements RemoteConnection {
     @Override
     public boolean createNewDirectory(String dirName) throws IOException, FTPClientException {
         try {
-            if (!checkRemoteDirectoryExists(dirName)) {
-                client.makeDirectory(dirName);
+            if (!checkRemoteDirectoryExists(dirName) && client.makeDirectory(dirName)) {
+                metadataCache.rememberDirectory(dirName);
             }
         } catch (SocketException e) {
             System.out.println("Something went wrong, when trying to create directory \"" + dirName + "\"\n" +
@@ -99,8 +388,70 @@ public class FTPConnection implements RemoteConnection {
      */
     @Override
     public boolean checkFileExists(String filePath) throws IOException {
-        FTPFile[] remoteFile = client.listFiles(filePath);
-        return remoteFile.length > 0;
+        if (metadataCache.isKnownFile(filePath)) {
+            return true;
+        }
+        boolean exists;
+        if (mlsdSupported) {
+            exists = client.mlistFile(filePath) != null;
+        } else {
+            exists = client.listFiles(filePath).length > 0;
+        }
+        if (exists) {
+            metadataCache.rememberFile(filePath);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This method is used to get the size, modification time and type of a remote path. It is one MLST when
+     * the server supports it, otherwise the listing of the parent directory, that stops as soon as the path
+     * is found.
+     *
+     * @param remotePath - remote file or directory.
+     * @return [RemoteFileEntry] - entry with the full path, or null if the path does not exist.
+     * @throws FTPClientException - if the path could not be checked, eg: the parent cannot be listed.
+     */
+    @Override
+    public RemoteFileEntry statRemoteFile(String remotePath) throws FTPClientException {
+        try {
+            if (mlsdSupported) {
+                FTPFile file = client.mlistFile(remotePath);
+                if (file == null) {
+                    if (client.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+                        return null;
+                    }
+                    throw new FTPClientException("Could not check " + remotePath + " : " + client.getReplyString().trim());
+                }
+                long modifiedTime = file.getTimestamp() == null ? RemoteFileEntry.UNKNOWN_TIME : file.getTimestamp().getTimeInMillis();
+                return new RemoteFileEntry(remotePath, file.isDirectory() ? 0 : file.getSize(), modifiedTime, file.isDirectory());
+            }
+            String path = remotePath;
+            while (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            if (path.equals("/")) {
+                return new RemoteFileEntry(path, 0, RemoteFileEntry.UNKNOWN_TIME, true);
+            }
+            int slash = path.lastIndexOf('/');
+            String parent = slash > 0 ? path.substring(0, slash) : slash == 0 ? "/" : ".";
+            String name = path.substring(slash + 1);
+            RemoteFileEntry[] found = new RemoteFileEntry[1];
+            boolean listed = streamEntries(parent, entry -> {
+                if (entry.getPath().equals(name)) {
+                    found[0] = new RemoteFileEntry(remotePath, entry.getSize(), entry.getModifiedTime(), entry.isDirectory());
+                    return false;
+                }
+                return true;
+            });
+            if (!listed) {
+                throw new FTPClientException("Could not list " + parent);
+            }
+            return found[0];
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
     }
 
     /**
@@ -123,7 +474,19 @@ public class FTPConnection implements RemoteConnection {
      */
     @Override
     public boolean checkRemoteDirectoryExists(String dirPath) throws FTPClientException {
+        if (metadataCache.isKnownDirectory(dirPath)) {
+            return true;
+        }
         try {
+            if (mlsdSupported) {
+                // One MLST round trip, instead of two CWD.
+                FTPFile directory = client.mlistFile(dirPath);
+                if (directory != null && directory.isDirectory()) {
+                    metadataCache.rememberDirectory(dirPath);
+                    return true;
+                }
+                return false;
+            }
             // This is the limitation of the FTPClient library that we are using, thus we need to use changeWorkingDirectory and later traverse back to original path.
             client.changeWorkingDirectory(dirPath);
             int returnCode = client.getReplyCode();
@@ -132,6 +495,7 @@ public class FTPConnection implements RemoteConnection {
             } else {
                 logger.info("File exists, reverting to previous directory");
                 client.changeWorkingDirectory("..");
+                metadataCache.rememberDirectory(dirPath);
             }
         } catch (IOException e) {
             throw new FTPClientException(e);
@@ -161,10 +525,10 @@ public class FTPConnection implements RemoteConnection {
     @Override
     public void listCurrentDirectory() throws FTPClientException {
         try {
-            FTPFile[] ftpFiles = client.listFiles();
-            for (FTPFile file : ftpFiles) {
-                System.out.println(file.getName());
-            }
+            streamEntries(null, entry -> {
+                System.out.println(entry.getPath());
+                return true;
+            });
         } catch (IOException e) {
             throw new FTPClientException(e);
         }
@@ -180,6 +544,7 @@ public class FTPConnection implements RemoteConnection {
     public boolean deleteFile(String filePath) {
         try {
             logger.debug("Going to delete file :[" + filePath + "]");
+            metadataCache.invalidate(filePath);
             return client.deleteFile(filePath);
         } catch (IOException e) {
             System.out.println("Failed due to: " + e.getMessage());
@@ -189,27 +554,83 @@ public class FTPConnection implements RemoteConnection {
 
     /**
      * This method is used to delete an entire directory (including files present in it),
-     * on the FTP remote server.
+     * on the FTP remote server. A small tree is deleted with this connection only, a larger one with
+     * DELETE_PARALLELISM extra connections, or with this connection if no extra login is possible.
      *
      * @param dirPath - remote directory path
      * @return [boolean] - true if success else return false
      */
     @Override
     public boolean deleteDirectory(String dirPath) throws FTPClientException {
+        boolean smallTree;
         try {
-            FTPFile[] ftpFiles = client.listFiles(dirPath);
-            for (FTPFile file : ftpFiles) {
-                dirPath = dirPath.endsWith("/") ? dirPath : dirPath + "/";
-                if (file.isDirectory()) {
-                    deleteDirectory(dirPath + file.getName());
-                } else {
-                    client.deleteFile(dirPath + file.getName());
-                }
-            }
-            return client.removeDirectory(dirPath);
+            smallTree = ParallelTreeDelete.isSmallTree(dirPath, treeRemover(false), ParallelTreeDelete.SMALL_TREE_ENTRIES);
         } catch (IOException e) {
             throw new FTPClientException(e);
         }
+        TransferSummary summary = deleteDirectoryParallel(dirPath, smallTree ? 0 : DELETE_PARALLELISM);
+        if (!summary.isSuccessful()) {
+            summary.printSummary();
+        }
+        return summary.isSuccessful();
+    }
+
+    /**
+     * This method is used to delete an entire directory, with several connections at once. The tree is listed
+     * only once, the files are deleted while it is being listed, then the directories are removed bottom-up.
+     * A file that cannot be deleted is recorded in the summary, and the job goes on with the others.
+     * If no extra connection can be opened, the tree is deleted with this connection.
+     *
+     * @param dirPath - remote directory path
+     * @param connections - number of extra connections that list and delete at once, 0 to use only this one.
+     * @return [TransferSummary] - deleted files and the paths that could not be deleted.
+     */
+    @Override
+    public TransferSummary deleteDirectoryParallel(String dirPath, int connections) {
+        metadataCache.invalidate(dirPath);
+        invalidateManifest(dirPath);
+        return ParallelTreeDelete.delete(dirPath, connections, () -> {
+            FTPConnection sibling = openSiblingConnection();
+            if (sibling == null) {
+                throw new IOException("Login failed");
+            }
+            return sibling.treeRemover(true);
+        }, treeRemover(false));
+    }
+
+    /**
+     * @param disconnectOnClose - true for a sibling connection, that is closed with its worker.
+     * @return [TreeRemover] - the operations of ParallelTreeDelete, over this connection.
+     */
+    private ParallelTreeDelete.TreeRemover treeRemover(boolean disconnectOnClose) {
+        return new ParallelTreeDelete.TreeRemover() {
+            @Override
+            public boolean read(String dir, RemoteEntryVisitor visitor) throws IOException {
+                return streamEntries(dir, visitor);
+            }
+
+            @Override
+            public boolean deleteFile(String remotePath) throws IOException {
+                return client.deleteFile(remotePath);
+            }
+
+            @Override
+            public boolean removeDirectory(String remoteDir) throws IOException {
+                return client.removeDirectory(remoteDir);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!disconnectOnClose) {
+                    return;
+                }
+                try {
+                    disconnect();
+                } catch (FTPClientException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        };
     }
 
     /**
@@ -217,11 +638,12 @@ public class FTPConnection implements RemoteConnection {
      *
      * @param localFilePath - this is the path on local system
      * @param remotePath    - this is the path on remote server.
+     * @return [boolean] - true if the file was uploaded.
      * @throws IOException        - can throw IOException, while handling files.
      * @throws FTPClientException - throws this exception while checking if file exist or not opn remote server.
      */
     @Override
-    public void uploadSingleFile(String localFilePath, String remotePath) throws IOException, FTPClientException {
+    public boolean uploadSingleFile(String localFilePath, String remotePath) throws IOException, FTPClientException {
         boolean uploaded = false;
         String remoteFilePath;
 
@@ -229,10 +651,10 @@ public class FTPConnection implements RemoteConnection {
         if (localFile.isFile()) {
             remoteFilePath = remotePath + "/" + localFile.getName();
             if (checkRemoteDirectoryExists(remotePath)) {
-                InputStream inputStream = new FileInputStream(localFile);
+                InputStream inputStream = LocalFileChannels.openInput(localFile);
                 try {
                     client.setFileType(org.apache.commons.net.ftp.FTP.BINARY_FILE_TYPE);
-                    uploaded = client.storeFile(remoteFilePath, inputStream);
+                    uploaded = storeFile(remoteFilePath, localFile.getName(), inputStream);
                 } catch (IOException e) {
                     System.out.println("-- Something went wrong when trying to upload the file. --\n");
                 } finally {
@@ -254,6 +676,7 @@ public class FTPConnection implements RemoteConnection {
             logger.info("Error occurred - The local path provided is not valid.");
             System.out.println("Error: The local path provided is not valid.\n");
         }
+        return uploaded;
     }
 
     /**
@@ -275,6 +698,150 @@ public class FTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to put a single file on the remote server, resuming a previous partial upload.
+     * If the journal has an entry for the file, the upload continues with APPE from the size of the
+     * remote file, otherwise the file is sent from the beginning. Progress is recorded in the journal.
+     *
+     * @param localFilePath - this is the path on local system
+     * @param remotePath - this is the path on remote server.
+     * @param journal - journal that records the committed bytes.
+     * @return [boolean] - true if the file is completely on the remote server.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean uploadSingleFileResumable(String localFilePath, String remotePath, TransferJournal journal) throws IOException, FTPClientException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            logger.info("Error occurred - The local path provided is not valid.");
+            return false;
+        }
+        String remoteFilePath = remotePath + "/" + localFile.getName();
+        String key = TransferJournal.uploadKey(localFile.getAbsolutePath(), remoteFilePath);
+        long totalBytes = localFile.length();
+        if (journal.isComplete(key, totalBytes)) {
+            logger.info("Skipping [" + localFilePath + "], already uploaded");
+            return true;
+        }
+        long offset = 0;
+        if (journal.hasEntry(key)) {
+            String remoteSize = client.getSize(remoteFilePath);
+            offset = remoteSize == null ? 0 : Long.parseLong(remoteSize.trim());
+            if (offset > totalBytes) {
+                offset = 0;
+            }
+        }
+        journal.recordProgress(key, offset, totalBytes);
+        long startOffset = offset;
+        client.setCopyStreamListener(new CopyStreamAdapter() {
+            @Override
+            public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
+                journal.recordProgress(key, startOffset + totalBytesTransferred, totalBytes);
+            }
+        });
+        try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            boolean uploaded;
+            if (offset > 0) {
+                logger.info("Resuming upload of [" + localFilePath + "] at byte " + offset);
+                IOUtils.skipFully(inputStream, offset);
+                uploaded = client.appendFile(remoteFilePath, inputStream);
+            } else {
+                uploaded = client.storeFile(remoteFilePath, inputStream);
+            }
+            if (uploaded) {
+                journal.markComplete(key, totalBytes);
+            }
+            return uploaded;
+        } finally {
+            client.setCopyStreamListener(null);
+        }
+    }
+
+    /**
+     * This method is used to upload multiple files onto remote FTP server, resuming the partial ones.
+     * A failed file does not stop the batch, the next run picks it up from the journal.
+     *
+     * @param localPaths [Array] - these are the paths of all the files on local system, that user wants to upload
+     * @param remotePath - this is the path on remote server, where user want to upload all those files.
+     * @param journal - journal that records the committed bytes.
+     */
+    @Override
+    public void uploadMultipleFilesResumable(String[] localPaths, String remotePath, TransferJournal journal) {
+        int failed = 0;
+        for (String localPath : localPaths) {
+            try {
+                if (!uploadSingleFileResumable(localPath, remotePath, journal)) {
+                    failed++;
+                }
+            } catch (IOException | FTPClientException e) {
+                logger.error("Error while uploading [" + localPath + "] : " + e.getMessage());
+                failed++;
+            }
+        }
+        if (failed == 0) {
+            logger.info("All files uploaded successfully");
+        } else {
+            logger.error(failed + " file(s) could not be uploaded, run the upload again to resume them");
+        }
+    }
+
+    /**
+     * This method is used to download a single file from a remote FTP server, resuming a previous partial
+     * download. If the journal has an entry for the file, the download continues with REST from the size
+     * of the local file, otherwise the file is fetched from the beginning.
+     *
+     * @param localPath - local file path where you want to download the file to.
+     * @param remoteFilePath - remote path from where you want to download the file from.
+     * @param journal - journal that records the committed bytes.
+     * @return [boolean] - true if the file is completely on the local machine.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean downloadSingleFileResumable(String localPath, String remoteFilePath, TransferJournal journal) throws IOException, FTPClientException {
+        String remoteSize = client.getSize(remoteFilePath);
+        if (remoteSize == null) {
+            logger.error("Error Downloading file : [" + remoteFilePath + "] does not exist on remote location");
+            return false;
+        }
+        long totalBytes = Long.parseLong(remoteSize.trim());
+        File downloadFile = new File(localPath);
+        File parentDir = downloadFile.getAbsoluteFile().getParentFile();
+        if (!parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        String key = TransferJournal.downloadKey(remoteFilePath, downloadFile.getAbsolutePath());
+        if (journal.isComplete(key, totalBytes) && downloadFile.length() == totalBytes) {
+            logger.info("Skipping [" + remoteFilePath + "], already downloaded");
+            return true;
+        }
+        long offset = journal.hasEntry(key) && downloadFile.length() <= totalBytes ? downloadFile.length() : 0;
+        journal.recordProgress(key, offset, totalBytes);
+        client.setCopyStreamListener(new CopyStreamAdapter() {
+            @Override
+            public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
+                journal.recordProgress(key, offset + totalBytesTransferred, totalBytes);
+            }
+        });
+        try (OutputStream outputStream = LocalFileChannels.openOutput(downloadFile, offset > 0)) {
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            if (offset > 0) {
+                logger.info("Resuming download of [" + remoteFilePath + "] at byte " + offset);
+                client.setRestartOffset(offset);
+            }
+            boolean downloaded = client.retrieveFile(remoteFilePath, outputStream);
+            outputStream.flush();
+            if (downloaded) {
+                journal.markComplete(key, totalBytes);
+            }
+            return downloaded;
+        } finally {
+            client.setCopyStreamListener(null);
+        }
+    }
+
     /**
      * This method is used to rename the file present on remote server.
      *
@@ -287,6 +854,8 @@ public class FTPConnection implements RemoteConnection {
     public boolean renameRemoteFile(String oldName, String newName) throws FTPClientException {
         try {
             if (checkFileExists(oldName)) {
+                metadataCache.invalidate(oldName);
+                metadataCache.invalidate(newName);
                 return client.rename(oldName, newName);
             }
             else {
@@ -299,8 +868,78 @@ public class FTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to rename or move many files at once, with RENAME_PARALLELISM extra connections.
+     * The sources are checked against one listing of their directory, instead of one check per file.
+     * Small batches, or batches for which no extra login is accepted, are renamed with this connection.
+     *
+     * @param renames - full source path to full target path.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    @Override
+    public TransferSummary renameRemoteFiles(Map<String, String> renames) {
+        return BatchRename.rename(renames, this::streamEntries, RENAME_PARALLELISM, this::openRenamer, renamer(false),
+                this::forgetDirectory);
+    }
+
+    /**
+     * This method is used to rename every entry of a directory whose name matches a regular expression,
+     * with RENAME_PARALLELISM extra connections. eg: ("/logs", "^(.*)\\.log$", "archive/$1.log")
+     *
+     * @param remoteDir - directory that holds the entries.
+     * @param regex - found anywhere in the name.
+     * @param replacement - new name, relative to remoteDir, with $1 for the groups.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    @Override
+    public TransferSummary renameRemoteFiles(String remoteDir, String regex, String replacement) {
+        return BatchRename.substitute(remoteDir, regex, replacement, this::streamEntries, RENAME_PARALLELISM,
+                this::openRenamer, renamer(false), this::forgetDirectory);
+    }
+
+    private BatchRename.Renamer openRenamer() throws IOException {
+        FTPConnection sibling = openSiblingConnection();
+        if (sibling == null) {
+            throw new IOException("Login failed");
+        }
+        return sibling.renamer(true);
+    }
+
+    /**
+     * @param disconnectOnClose - true for a sibling connection, that is closed with its worker.
+     * @return [Renamer] - renames over this connection, for BatchRename.
+     */
+    private BatchRename.Renamer renamer(boolean disconnectOnClose) {
+        return new BatchRename.Renamer() {
+            @Override
+            public boolean rename(String from, String to) throws IOException {
+                return client.rename(from, to);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!disconnectOnClose) {
+                    return;
+                }
+                try {
+                    disconnect();
+                } catch (FTPClientException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    private void forgetDirectory(String remoteDir) {
+        metadataCache.invalidate(remoteDir);
+        if (remoteTreeManifest != null) {
+            remoteTreeManifest.invalidate(remoteDir);
+        }
+    }
+
     /**
      * This method is used to create a copy of a directory on remote server.
+     * The files are streamed from one connection to another, nothing is written to the local disk.
      *
      * @param sourceDir - the name of the directory you want to copy.
      * @param desDir - the name of the new copy
@@ -311,68 +950,460 @@ public class FTPConnection implements RemoteConnection {
     @Override
     public boolean copyDirectory(String sourceDir, String desDir) throws FTPClientException, IOException {
         if (checkRemoteDirectoryExists(sourceDir)) {
-            String tempFolder = System.getProperty("user.dir") + '\\' + "temp";
-            File theDir = new File(tempFolder);
-            if (!theDir.exists()) {
-                theDir.mkdirs();
-            }
-            downloadDirectory(client.printWorkingDirectory() + sourceDir, tempFolder);
-            if (!checkRemoteDirectoryExists(desDir)) {
-                client.makeDirectory(desDir);
-            }
-            uploadDirectory(tempFolder + '\\' + sourceDir, desDir);
-            FileUtils.deleteDirectory(new File(tempFolder));
-            System.out.println("Successfully made a copy of " + sourceDir + " called " + desDir);
-            return true;
+            TransferSummary summary = copyDirectoryStreamed(sourceDir, desDir, COPY_PARALLELISM);
+            summary.printSummary();
+            if (summary.isSuccessful()) {
+                System.out.println("Successfully made a copy of " + sourceDir + " called " + desDir);
+            }
+            return summary.isSuccessful();
         }
         System.out.println(sourceDir + " directory does not exist");
         return false;
     }
 
     /**
-     * This method is used to download a directory on the remote server onto local.
+     * This method is used to copy a remote directory to another remote directory on the same server,
+     * without touching the local disk. Every worker holds two connections: it reads a file with RETR on
+     * the first one and sends the same stream with STOR on the second one, so at most one copy buffer
+     * per worker is held in memory.
      *
-     * @param currentDir
-     * @param saveDir
-     * @return [boolean]
-     * @throws IOException
+     * @param sourceDir - the remote directory you want to copy.
+     * @param desDir - the remote directory that receives the content of sourceDir.
+     * @param parallel - number of files copied at once.
+     * @return [TransferSummary] - aggregate throughput and the files that failed.
      * @throws FTPClientException
      */
     @Override
-    public boolean downloadDirectory(String currentDir, String saveDir) throws IOException, FTPClientException {
-        String parentDir = client.printWorkingDirectory();
-        String dirToList = parentDir;
-        if (!"".equals(currentDir)) {
-            dirToList += "/" + currentDir;
+    public TransferSummary copyDirectoryStreamed(String sourceDir, String desDir, int parallel) throws FTPClientException {
+        TransferSummary summary = new TransferSummary();
+        BlockingQueue<String[]> queue = new LinkedBlockingQueue<>();
+        int workerCount = Math.max(1, parallel);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> drainCopyQueue(queue, summary));
+        }
+        try {
+            planRemoteCopy(sourceDir, desDir, client, queue);
+        } catch (IOException e) {
+            summary.recordFailure(sourceDir, "Error while listing remote directory: " + e.getMessage());
+        } finally {
+            for (int i = 0; i < workerCount; i++) {
+                queue.add(END_OF_COPY_QUEUE);
+            }
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
         }
-        FTPFile[] subFiles = client.listFiles(dirToList);
+        for (String[] copy : queue) {
+            if (copy != END_OF_COPY_QUEUE) {
+                summary.recordFailure(copy[0], "No connection available to copy the file");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
 
-        if (subFiles != null && subFiles.length > 0) {
-            for (FTPFile aFile : subFiles) {
-                String currentFileName = aFile.getName();
-                if (".".equals(currentFileName) || "..".equals(currentFileName)) {
-                    continue;
+    /**
+     * This method is used to list the source tree breadth first, create the matching directories under
+     * desDir and put every {source, destination, size} file entry on the queue.
+     *
+     * @param sourceDir - remote directory to copy.
+     * @param desDir - remote directory matching sourceDir.
+     * @param desClient - client of the server that receives the copy, it creates the directories.
+     * @param queue - queue that is drained by the copy workers.
+     * @throws IOException
+     */
+    private void planRemoteCopy(String sourceDir, String desDir, FTPClient desClient, BlockingQueue<String[]> queue) throws IOException {
+        Deque<String[]> pending = new ArrayDeque<>();
+        pending.add(new String[]{sourceDir, desDir});
+        while (!pending.isEmpty()) {
+            String[] dirs = pending.poll();
+            desClient.makeDirectory(dirs[1]);
+            String sourcePrefix = dirs[0].endsWith("/") ? dirs[0] : dirs[0] + "/";
+            String desPrefix = dirs[1].endsWith("/") ? dirs[1] : dirs[1] + "/";
+            streamEntries(dirs[0], entry -> {
+                String currentFileName = entry.getPath();
+                if (entry.isDirectory()) {
+                    pending.add(new String[]{sourcePrefix + currentFileName, desPrefix + currentFileName});
+                } else {
+                    queue.add(new String[]{sourcePrefix + currentFileName, desPrefix + currentFileName,
+                            String.valueOf(entry.getSize())});
                 }
-                String filePath = parentDir + "/" + currentDir + "/" + currentFileName;
-                if ("".equals(currentDir)) {
-                    filePath = parentDir + "/" + currentFileName;
+                return true;
+            });
+        }
+    }
+
+    /**
+     * This method is run by every copy worker. It opens a reading and a writing connection and streams
+     * files from one to the other, until it finds the end of queue marker.
+     *
+     * @param queue - shared queue of {source, destination} pairs.
+     * @param summary - collects the result of every file.
+     */
+    private void drainCopyQueue(BlockingQueue<String[]> queue, TransferSummary summary) {
+        FTPConnection source = openSiblingConnection();
+        FTPConnection target = source == null ? null : openSiblingConnection();
+        if (target == null) {
+            closeSibling(source);
+            return;
+        }
+        try {
+            String[] copy;
+            while ((copy = queue.take()) != END_OF_COPY_QUEUE) {
+                try {
+                    InputStream inputStream = source.client.retrieveFileStream(copy[0]);
+                    if (inputStream == null) {
+                        summary.recordFailure(copy[0], source.client.getReplyString().trim());
+                        continue;
+                    }
+                    CountingInputStream countingStream = new CountingInputStream(inputStream);
+                    boolean stored;
+                    try {
+                        stored = target.client.storeFile(copy[1], countingStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                    boolean retrieved = source.client.completePendingCommand();
+                    if (stored && retrieved) {
+                        summary.recordSuccess(countingStream.getByteCount());
+                    } else {
+                        summary.recordFailure(copy[0], (stored ? source : target).client.getReplyString().trim());
+                    }
+                } catch (IOException e) {
+                    summary.recordFailure(copy[0], e.getMessage());
                 }
-                String newDirPath = saveDir + parentDir + File.separator + currentDir + File.separator + currentFileName;
-                if ("".equals(currentDir)) {
-                    newDirPath = saveDir + parentDir + File.separator + currentFileName;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSibling(source);
+            closeSibling(target);
+        }
+    }
+
+    /**
+     * This method is used to move a directory from this server to another FTP server with FXP, so the
+     * data flows directly between the two servers and never passes through this machine.
+     * For every file the target server is put in passive mode, and this server is told with PORT to connect
+     * to it, then RETR is sent here and STOR there. Every pair of connections moves one file at a time.
+     *
+     * Both servers must allow FXP: many servers refuse a PORT address that is not the client's address.
+     *
+     * @param sourceDir - the directory on this server that you want to transfer.
+     * @param target - connected instance of the receiving server.
+     * @param targetDir - the directory on the target server that receives the content of sourceDir.
+     * @param pairs - number of files transferred at once.
+     * @return [TransferSummary] - aggregate throughput and the files that failed.
+     * @throws FTPClientException
+     */
+    public TransferSummary transferDirectoryFxp(String sourceDir, FTPConnection target, String targetDir, int pairs) throws FTPClientException {
+        TransferSummary summary = new TransferSummary();
+        BlockingQueue<String[]> queue = new LinkedBlockingQueue<>();
+        int workerCount = Math.max(1, pairs);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> drainFxpQueue(target, queue, summary));
+        }
+        try {
+            planRemoteCopy(sourceDir, targetDir, target.client, queue);
+        } catch (IOException e) {
+            summary.recordFailure(sourceDir, "Error while listing remote directory: " + e.getMessage());
+        } finally {
+            for (int i = 0; i < workerCount; i++) {
+                queue.add(END_OF_COPY_QUEUE);
+            }
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        for (String[] copy : queue) {
+            if (copy != END_OF_COPY_QUEUE) {
+                summary.recordFailure(copy[0], "No connection available to transfer the file");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is run by every FXP worker. It opens one connection to this server and one to the target,
+     * and transfers files between them until it finds the end of queue marker.
+     *
+     * @param target - connected instance of the receiving server, used to open the worker's own connection.
+     * @param queue - shared queue of {source, destination, size} entries.
+     * @param summary - collects the result of every file.
+     */
+    private void drainFxpQueue(FTPConnection target, BlockingQueue<String[]> queue, TransferSummary summary) {
+        FTPConnection source = openSiblingConnection();
+        FTPConnection receiver = source == null ? null : target.openSiblingConnection();
+        if (receiver == null) {
+            closeSibling(source);
+            return;
+        }
+        try {
+            String[] copy;
+            while ((copy = queue.take()) != END_OF_COPY_QUEUE) {
+                try {
+                    if (fxpFile(source.client, copy[0], receiver.client, copy[1])) {
+                        summary.recordSuccess(Long.parseLong(copy[2]));
+                    } else {
+                        summary.recordFailure(copy[0], "FXP refused : " + source.client.getReplyString().trim()
+                                + " / " + receiver.client.getReplyString().trim());
+                    }
+                } catch (IOException e) {
+                    summary.recordFailure(copy[0], e.getMessage());
                 }
-                if (aFile.isDirectory()) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSibling(source);
+            closeSibling(receiver);
+        }
+    }
+
+    /**
+     * This method is used to transfer one file between two servers with FXP.
+     *
+     * @param sourceClient - client of the sending server.
+     * @param sourcePath - path of the file on the sending server.
+     * @param targetClient - client of the receiving server.
+     * @param targetPath - path of the file on the receiving server.
+     * @return [boolean] - true if both servers report the transfer as complete.
+     * @throws IOException
+     */
+    private static boolean fxpFile(FTPClient sourceClient, String sourcePath, FTPClient targetClient, String targetPath) throws IOException {
+        if (!targetClient.enterRemotePassiveMode()) {
+            return false;
+        }
+        if (!sourceClient.enterRemoteActiveMode(InetAddress.getByName(targetClient.getPassiveHost()), targetClient.getPassivePort())) {
+            return false;
+        }
+        try {
+            // RETR first: the receiving server accepts the data connection as soon as it is in passive mode,
+            // but many servers only answer STOR once that connection is open, so STOR first would hang.
+            if (!sourceClient.remoteRetrieve(sourcePath)) {
+                return false;
+            }
+            if (!targetClient.remoteStore(targetPath)) {
+                // The sending side is still pushing data, drop it so the connection can be reused.
+                sourceClient.abort();
+                sourceClient.getReply();
+                return false;
+            }
+            boolean retrieved = sourceClient.completePendingCommand();
+            boolean stored = targetClient.completePendingCommand();
+            return retrieved && stored;
+        } finally {
+            // FXP changes the data connection mode, restore the mode the rest of this class expects.
+            sourceClient.enterLocalPassiveMode();
+            targetClient.enterLocalPassiveMode();
+        }
+    }
+
+    private void closeSibling(FTPConnection sibling) {
+        if (sibling == null) {
+            return;
+        }
+        try {
+            sibling.disconnect();
+        } catch (FTPClientException e) {
+            logger.debug("Error while closing parallel connection : " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method is used to download a directory on the remote server onto local.
+     *
+     * @param currentDir
+     * @param saveDir
+     * @return [boolean]
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean downloadDirectory(String currentDir, String saveDir) throws IOException, FTPClientException {
+        String parentDir = client.printWorkingDirectory();
+        String dirToList = parentDir;
+        if (!"".equals(currentDir)) {
+            dirToList += "/" + currentDir;
+        }
+        int[] entryCount = {0};
+        streamEntries(dirToList, entry -> {
+            entryCount[0]++;
+            String currentFileName = entry.getPath();
+            String filePath = parentDir + "/" + currentDir + "/" + currentFileName;
+            if ("".equals(currentDir)) {
+                filePath = parentDir + "/" + currentFileName;
+            }
+            String newDirPath = saveDir + parentDir + File.separator + currentDir + File.separator + currentFileName;
+            if ("".equals(currentDir)) {
+                newDirPath = saveDir + parentDir + File.separator + currentFileName;
+            }
+            try {
+                if (entry.isDirectory()) {
                     File newDir = new File(newDirPath);
                     newDir.mkdirs();
                     downloadDirectory(filePath, saveDir);
                 } else {
                     downloadSingleFile(newDirPath, filePath);
                 }
+            } catch (FTPClientException e) {
+                throw new IOException(e.getMessage(), e);
             }
             return true;
-        } else {
-            return false;
+        });
+        return entryCount[0] > 0;
+    }
+
+    /**
+     * This method is used to download a directory on the remote server onto local, using several connections at once.
+     * This connection walks the remote tree and puts every file on a shared queue, while `connections` independent
+     * logins to the same server take files from the queue and download them.
+     *
+     * @param currentDir - remote directory to download.
+     * @param saveDir - local directory, the content of currentDir is saved directly under it.
+     * @param connections - number of extra connections used to download the files.
+     * @return [TransferSummary] - aggregate throughput and the files that failed.
+     * @throws FTPClientException
+     */
+    public TransferSummary downloadDirectoryParallel(String currentDir, String saveDir, int connections) throws FTPClientException {
+        TransferSummary summary = new TransferSummary();
+        BlockingQueue<TransferTask> queue = new LinkedBlockingQueue<>();
+        int workerCount = Math.max(1, connections);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> drainDownloadQueue(queue, summary));
+        }
+        try {
+            walkRemoteTree(currentDir, saveDir, queue);
+        } catch (IOException e) {
+            summary.recordFailure(currentDir, "Error while listing remote directory: " + e.getMessage());
+        } finally {
+            for (int i = 0; i < workerCount; i++) {
+                queue.add(TransferTask.END_OF_QUEUE);
+            }
+            executor.shutdown();
         }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        // Files are left on the queue only if every worker failed to log in.
+        for (TransferTask task : queue) {
+            if (task != TransferTask.END_OF_QUEUE) {
+                summary.recordFailure(task.getRemotePath(), "No connection available to download the file");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is used to list the remote tree breadth first, create the local directories
+     * and put every remote file on the queue.
+     *
+     * @param remoteDir - remote directory to walk.
+     * @param saveDir - local directory matching remoteDir.
+     * @param queue - queue that is drained by the download workers.
+     * @throws IOException
+     */
+    private void walkRemoteTree(String remoteDir, String saveDir, BlockingQueue<TransferTask> queue) throws IOException {
+        if (remoteTreeManifest != null) {
+            new File(saveDir).mkdirs();
+            for (RemoteFileEntry entry : getRemoteTree(remoteDir).values()) {
+                String localPath = saveDir + File.separator + entry.getPath().replace('/', File.separatorChar);
+                if (entry.isDirectory()) {
+                    new File(localPath).mkdirs();
+                } else {
+                    queue.add(new TransferTask(localPath, DirectorySync.remotePath(remoteDir, entry.getPath()), entry.getSize()));
+                }
+            }
+            return;
+        }
+        Deque<String[]> pending = new ArrayDeque<>();
+        pending.add(new String[]{remoteDir, saveDir});
+        while (!pending.isEmpty()) {
+            String[] dirs = pending.poll();
+            new File(dirs[1]).mkdirs();
+            String remotePrefix = dirs[0].endsWith("/") ? dirs[0] : dirs[0] + "/";
+            streamEntries(dirs[0], entry -> {
+                String remotePath = remotePrefix + entry.getPath();
+                String localPath = dirs[1] + File.separator + entry.getPath();
+                if (entry.isDirectory()) {
+                    pending.add(new String[]{remotePath, localPath});
+                } else {
+                    queue.add(new TransferTask(localPath, remotePath, entry.getSize()));
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * This method is run by every download worker. It opens its own connection and downloads
+     * files from the queue, until it finds the end of queue marker.
+     *
+     * @param queue - shared queue of files to download.
+     * @param summary - collects the result of every file.
+     */
+    private void drainDownloadQueue(BlockingQueue<TransferTask> queue, TransferSummary summary) {
+        FTPConnection worker = openSiblingConnection();
+        if (worker == null) {
+            return;
+        }
+        try {
+            TransferTask task;
+            while ((task = queue.take()) != TransferTask.END_OF_QUEUE) {
+                File localFile = new File(task.getLocalPath());
+                try (OutputStream outputStream = LocalFileChannels.openOutput(localFile, false)) {
+                    logger.debug("Downloading file : [" + task.getRemotePath() + "] on a parallel connection");
+                    if (worker.retrieveFile(task.getRemotePath(), outputStream)) {
+                        summary.recordSuccess(localFile.length());
+                    } else {
+                        summary.recordFailure(task.getRemotePath(), worker.client.getReplyString().trim());
+                    }
+                } catch (IOException e) {
+                    summary.recordFailure(task.getRemotePath(), e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                worker.disconnect();
+            } catch (FTPClientException e) {
+                logger.debug("Error while closing parallel connection : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method is used to open one more connection to the server, with the credentials of this connection.
+     *
+     * @return [FTPConnection] - logged in connection, or null if login failed.
+     */
+    FTPConnection openSiblingConnection() {
+        FTPConnection sibling = new FTPConnection();
+        sibling.setTransferProfile(transferProfile);
+        sibling.setCompressionEnabled(compressionEnabled);
+        sibling.setMetadataCache(metadataCache);
+        if (sibling.connect(hostName, userName, password) != 1) {
+            logger.error("Could not open parallel connection to [" + hostName + "]");
+            return null;
+        }
+        return sibling;
     }
 
     /**
@@ -392,12 +1423,11 @@ public class FTPConnection implements RemoteConnection {
             parentDir.mkdir();
         }
         String fileName = getFileNameFromRemote(remoteFilePath);
-        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(downloadFile));
+        OutputStream outputStream = LocalFileChannels.openOutput(downloadFile, false);
         try {
             client.setFileType(FTP.BINARY_FILE_TYPE);
             logger.info("Downloading file : [" + fileName + "] from remote location");
-            client.retrieveFile(remoteFilePath, outputStream);
-            return true;
+            return retrieveFile(remoteFilePath, outputStream);
         } catch (IOException ex) {
             logger.error("Error Downloading file : [" + remoteFilePath + "] from remote location");
             return false;
@@ -408,6 +1438,116 @@ public class FTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to download a single file into a local directory, under its remote name.
+     *
+     * @param localDir - local directory where you want to download the file to.
+     * @param remoteFilePath - remote path from where you want to download the file from.
+     * @return [boolean] - true if success.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean downloadFileToDirectory(String localDir, String remoteFilePath) throws IOException, FTPClientException {
+        return downloadSingleFile(new File(localDir, getFileNameFromRemote(remoteFilePath)).getPath(), remoteFilePath);
+    }
+
+    /**
+     * This method is used to download one large file as several byte ranges at once. The local file is
+     * preallocated, and every range is fetched with REST + RETR over one of `connections` extra logins
+     * and written at its own offset.
+     *
+     * @param localPath - local file path where you want to download the file to.
+     * @param remoteFilePath - remote path from where you want to download the file from.
+     * @param connections - number of extra connections used to fetch the ranges.
+     * @param segmentSize - size of every range in bytes, 0 to use the default of 64 MB.
+     * @return [TransferSummary] - one success per range, and the ranges that failed.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    public TransferSummary downloadSingleFileSegmented(String localPath, String remoteFilePath, int connections, long segmentSize) throws IOException, FTPClientException {
+        String reply = client.getSize(remoteFilePath);
+        if (reply == null) {
+            throw new FTPClientException("Could not get size of remote file : " + remoteFilePath);
+        }
+        long fileSize = Long.parseLong(reply.trim());
+        File downloadFile = new File(localPath);
+        File parentDir = downloadFile.getAbsoluteFile().getParentFile();
+        if (!parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        int workerCount = Math.max(1, connections);
+        BlockingQueue<long[]> segments = SegmentedTransfer.planSegments(fileSize, segmentSize, workerCount);
+        TransferSummary summary = new TransferSummary();
+        try (RandomAccessFile localFile = new RandomAccessFile(downloadFile, "rw")) {
+            localFile.setLength(fileSize);
+            FileChannel fileChannel = localFile.getChannel();
+            ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                executor.submit(() -> drainSegmentQueue(remoteFilePath, segments, fileChannel, summary));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        for (long[] segment : segments) {
+            if (segment != SegmentedTransfer.END_OF_QUEUE) {
+                summary.recordFailure(remoteFilePath + "@" + segment[0], "No connection available to download the segment");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is run by every segment worker. It opens its own connection and fetches ranges of the
+     * remote file, until it finds the end of queue marker.
+     *
+     * @param remoteFilePath - remote file being downloaded.
+     * @param segments - shared queue of {offset, length} ranges.
+     * @param fileChannel - preallocated local file.
+     * @param summary - collects the result of every range.
+     */
+    private void drainSegmentQueue(String remoteFilePath, BlockingQueue<long[]> segments, FileChannel fileChannel, TransferSummary summary) {
+        FTPConnection worker = openSiblingConnection();
+        if (worker == null) {
+            return;
+        }
+        try {
+            long[] segment;
+            while ((segment = segments.take()) != SegmentedTransfer.END_OF_QUEUE) {
+                try {
+                    worker.client.setRestartOffset(segment[0]);
+                    InputStream inputStream = worker.client.retrieveFileStream(remoteFilePath);
+                    if (inputStream == null) {
+                        summary.recordFailure(remoteFilePath + "@" + segment[0], worker.client.getReplyString().trim());
+                        continue;
+                    }
+                    try {
+                        SegmentedTransfer.copyRange(inputStream, fileChannel, segment[0], segment[1]);
+                    } finally {
+                        // Closing the data connection early makes the server answer 426 for every range but the last one.
+                        inputStream.close();
+                        worker.client.completePendingCommand();
+                    }
+                    summary.recordSuccess(segment[1]);
+                } catch (IOException e) {
+                    summary.recordFailure(remoteFilePath + "@" + segment[0], e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                worker.disconnect();
+            } catch (FTPClientException e) {
+                logger.debug("Error while closing parallel connection : " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * This method is used to download a multiple files from a remote FTP server to local machine.
      *
@@ -442,24 +1582,25 @@ public class FTPConnection implements RemoteConnection {
             return 0;
         }
 
-        FTPFileFilter filter = ftpFile -> (ftpFile.isFile() && ftpFile.getName().contains(keyword));
-        return searchFiles(filePath, filter);
+        return searchFiles(filePath, entry -> !entry.isDirectory() && entry.getPath().contains(keyword));
     }
 
-    private int searchFiles(String filePath, FTPFileFilter filter) throws FTPClientException {
-        FTPFile[] result;
+    private int searchFiles(String filePath, Predicate<RemoteFileEntry> filter) throws FTPClientException {
+        int[] found = {0};
         try {
-            result = client.listFiles(filePath, filter);
-            if (result != null && result.length > 0) {
-                System.out.println("SEARCH RESULT:");
-                for (FTPFile ftpFile : result) {
-                    System.out.println(ftpFile.getName());
+            streamEntries(filePath, entry -> {
+                if (filter.test(entry)) {
+                    if (found[0]++ == 0) {
+                        System.out.println("SEARCH RESULT:");
+                    }
+                    System.out.println(entry.getPath());
                 }
-            }
+                return true;
+            });
         } catch (IOException e) {
             throw new FTPClientException(e);
         }
-        return result != null ? result.length : 0;
+        return found[0];
     }
 
     /**
@@ -477,8 +1618,52 @@ public class FTPConnection implements RemoteConnection {
         }
 
         String ext = extension.startsWith(".") ? extension : "." + extension;
-        FTPFileFilter filter = ftpFile -> (ftpFile.isFile() && ftpFile.getName().endsWith(ext));
-        return searchFiles(filePath, filter);
+        return searchFiles(filePath, entry -> !entry.isDirectory() && entry.getPath().endsWith(ext));
+    }
+
+    /**
+     * This method is used to search a whole remote tree, breadth first, with SEARCH_PARALLELISM extra connections at once.
+     * Matches are handed to `results` as soon as they are listed, with their full remote path.
+     * When a RemoteTreeManifest is set, the tree is read from it instead, listing only the directories that changed.
+     *
+     * @param remoteDir - directory the search starts from.
+     * @param matcher - eg: RemoteFileMatcher.glob("*.log")
+     * @param maxDepth - number of directory levels below remoteDir that are searched, negative for no limit.
+     * @param maxResults - the search stops after this many matches, 0 or negative for no limit.
+     * @param results - receives the matches one at a time, it can stop the search.
+     * @return [int] - number of matches.
+     * @throws FTPClientException
+     */
+    @Override
+    public int searchTree(String remoteDir, RemoteFileMatcher matcher, int maxDepth, int maxResults, RemoteEntryVisitor results) throws FTPClientException {
+        try {
+            if (remoteTreeManifest != null) {
+                return ParallelTreeSearch.searchListed(remoteDir, getRemoteTree(remoteDir), matcher, maxDepth, maxResults, results);
+            }
+            return ParallelTreeSearch.search(remoteDir, matcher, maxDepth, maxResults, SEARCH_PARALLELISM, () -> {
+                FTPConnection sibling = openSiblingConnection();
+                if (sibling == null) {
+                    throw new IOException("Login failed");
+                }
+                return new ParallelTreeSearch.DirectoryReader() {
+                    @Override
+                    public boolean read(String dir, RemoteEntryVisitor visitor) throws IOException {
+                        return sibling.streamEntries(dir, visitor);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            sibling.disconnect();
+                        } catch (FTPClientException e) {
+                            throw new IOException(e.getMessage(), e);
+                        }
+                    }
+                };
+            }, results);
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
     }
 
     /**
@@ -522,6 +1707,246 @@ public class FTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to make a local directory and a remote directory identical, transferring only the
+     * files that are missing or differ in size or modification time. Both trees are listed once, with MLSD
+     * when the server supports it. Modification times are copied with the files (MFMT on push), so that the
+     * next sync finds them unchanged.
+     *
+     * @param localDir - local directory.
+     * @param remoteDir - remote directory.
+     * @param direction - PUSH to update the remote directory, PULL to update the local directory.
+     * @param deleteExtraneous - true to delete the files of the destination that do not exist in the source.
+     * @param dryRun - true to only print what would be done.
+     * @return [TransferSummary] - the files that were (or would be) transferred, and the failures.
+     * @throws FTPClientException
+     */
+    @Override
+    public TransferSummary sync(String localDir, String remoteDir, SyncDirection direction, boolean deleteExtraneous, boolean dryRun) throws FTPClientException {
+        if (direction == SyncDirection.PUSH && !dryRun) {
+            try {
+                client.makeDirectory(remoteDir);
+            } catch (IOException e) {
+                throw new FTPClientException(e);
+            }
+        }
+        return DirectorySync.sync(localDir, direction, deleteExtraneous, dryRun, new FtpSyncTransport(remoteDir));
+    }
+
+    /**
+     * This method is used to share a manifest of remote trees with this connection. The operations that
+     * walk a remote tree without changing it (listRemoteTree, parallel download, searchTree) then only list
+     * the directories that changed since the last walk. sync and deleteDirectory change the tree, so they
+     * always list it live.
+     *
+     * @param remoteTreeManifest - the manifest, null to list the trees completely every time.
+     */
+    @Override
+    public void setRemoteTreeManifest(RemoteTreeManifest remoteTreeManifest) {
+        this.remoteTreeManifest = remoteTreeManifest;
+    }
+
+    /**
+     * This method is used to replace the cache of remote paths known to exist, eg: to change its time to live.
+     *
+     * @param metadataCache - the cache, new RemoteMetadataCache(0, 0) to always ask the server.
+     */
+    @Override
+    public void setMetadataCache(RemoteMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * This method is used to get every file and directory under a remote directory.
+     *
+     * @param remoteDir - remote directory.
+     * @return [Map] - entries sorted by path relative to remoteDir, empty if it does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public Map<String, RemoteFileEntry> listRemoteTree(String remoteDir) throws FTPClientException {
+        return listRemoteTree(remoteDir, remoteTreeManifest);
+    }
+
+    /**
+     * This method is used to get every file and directory under a remote directory, with a manifest that is
+     * only used for this listing, whatever manifest is set on the connection.
+     *
+     * @param remoteDir - remote directory.
+     * @param manifest - listings kept from earlier calls, null to list the tree completely.
+     * @return [Map] - entries sorted by path relative to remoteDir, empty if it does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public Map<String, RemoteFileEntry> listRemoteTree(String remoteDir, RemoteTreeManifest manifest) throws FTPClientException {
+        try {
+            return (manifest != null ? manifest : new RemoteTreeManifest(null)).getTree(remoteDir, new FtpDirectoryLister());
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+    }
+
+    private Map<String, RemoteFileEntry> getRemoteTree(String remoteDir) throws IOException {
+        RemoteTreeManifest manifest = remoteTreeManifest != null ? remoteTreeManifest : new RemoteTreeManifest(null);
+        return manifest.getTree(remoteDir, new FtpDirectoryLister());
+    }
+
+    private void invalidateManifest(String remotePath) {
+        if (remoteTreeManifest != null) {
+            remoteTreeManifest.invalidateParentOf(remotePath);
+        }
+    }
+
+    /**
+     * FtpDirectoryLister class - lists directories for the manifest, with MLST and MLSD when the server supports them.
+     */
+    private class FtpDirectoryLister implements RemoteTreeManifest.DirectoryLister {
+        @Override
+        public long getModifiedTime(String remoteDir) throws IOException {
+            if (!mlsdSupported) {
+                return RemoteFileEntry.UNKNOWN_TIME;
+            }
+            FTPFile directory = client.mlistFile(remoteDir);
+            return directory == null || directory.getTimestamp() == null ? RemoteFileEntry.UNKNOWN_TIME : directory.getTimestamp().getTimeInMillis();
+        }
+
+        @Override
+        public List<RemoteFileEntry> list(String remoteDir) throws IOException {
+            List<RemoteFileEntry> entries = new ArrayList<>();
+            return streamEntries(remoteDir, entries::add) ? entries : null;
+        }
+    }
+
+    /**
+     * This method is used to read a remote directory one entry at a time. The listing is parsed in pages of
+     * LISTING_PAGE_SIZE entries, so only one page of FTPFile objects exists at any time.
+     *
+     * @param remoteDir - remote directory, null for the current directory.
+     * @param visitor - receives the entries, it can stop the listing.
+     * @return [boolean] - false if the server refused to list the directory, eg: it does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean streamDirectory(String remoteDir, RemoteEntryVisitor visitor) throws FTPClientException {
+        try {
+            return streamEntries(remoteDir, visitor);
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+    }
+
+    /**
+     * This method is used to list a remote directory with MLSD when the server supports it, with LIST otherwise.
+     * Modification times are only given with MLSD, LIST times are only precise to the minute or the day.
+     */
+    private boolean streamEntries(String remoteDir, RemoteEntryVisitor visitor) throws IOException {
+        FTPListParseEngine engine = null;
+        if (mlsdSupported) {
+            engine = client.initiateMListParsing(remoteDir);
+            int replyCode = client.getReplyCode();
+            if (!FTPReply.isPositiveCompletion(replyCode)) {
+                if (replyCode != FTPReply.UNRECOGNIZED_COMMAND && replyCode != FTPReply.COMMAND_NOT_IMPLEMENTED) {
+                    return false;
+                }
+                logger.info("Server does not support MLSD, listing with LIST");
+                mlsdSupported = false;
+                engine = null;
+            }
+        }
+        boolean exactTimes = engine != null;
+        if (engine == null) {
+            engine = client.initiateListParsing(remoteDir);
+            if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+                return false;
+            }
+        }
+        while (engine.hasNext()) {
+            for (FTPFile file : engine.getNext(LISTING_PAGE_SIZE)) {
+                // MLSD also lists the directory itself and its parent (type=cdir and type=pdir).
+                if (file == null || isSelfOrParent(file)) {
+                    continue;
+                }
+                long modifiedTime = exactTimes && file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : RemoteFileEntry.UNKNOWN_TIME;
+                if (!visitor.visit(new RemoteFileEntry(file.getName(), file.isDirectory() ? 0 : file.getSize(), modifiedTime, file.isDirectory()))) {
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSelfOrParent(FTPFile file) {
+        String rawListing = file.getRawListing() == null ? "" : file.getRawListing().toLowerCase();
+        return rawListing.contains("type=cdir;") || rawListing.contains("type=pdir;")
+                || ".".equals(file.getName()) || "..".equals(file.getName());
+    }
+
+    /**
+     * FtpSyncTransport class - the remote operations of a sync, for a remote root directory.
+     */
+    private class FtpSyncTransport implements DirectorySync.Transport {
+        private final String remoteRoot;
+
+        FtpSyncTransport(String remoteRoot) {
+            this.remoteRoot = remoteRoot;
+        }
+
+        @Override
+        public Map<String, RemoteFileEntry> listRemoteTree() throws IOException {
+            // Always a live listing: the manifest does not see files rewritten in place, and sync would skip them.
+            return new RemoteTreeManifest(null).getTree(remoteRoot, new FtpDirectoryLister());
+        }
+
+        @Override
+        public void makeRemoteDirectory(String path) throws IOException {
+            String remotePath = DirectorySync.remotePath(remoteRoot, path);
+            if (!client.makeDirectory(remotePath)) {
+                throw new IOException(client.getReplyString().trim());
+            }
+            invalidateManifest(remotePath);
+        }
+
+        @Override
+        public void upload(File localFile, String path, long modifiedTime) throws IOException {
+            String remoteFilePath = DirectorySync.remotePath(remoteRoot, path);
+            invalidateManifest(remoteFilePath);
+            try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
+                if (!storeFile(remoteFilePath, localFile.getName(), inputStream)) {
+                    throw new IOException(client.getReplyString().trim());
+                }
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            if (hasServerFeature("MFMT") && !client.setModificationTime(remoteFilePath, format.format(new Date(modifiedTime)))) {
+                logger.debug("Could not set modification time of " + remoteFilePath + " : " + client.getReplyString().trim());
+            }
+        }
+
+        @Override
+        public void download(String path, File localFile, long modifiedTime) throws IOException {
+            localFile.getParentFile().mkdirs();
+            try (OutputStream outputStream = LocalFileChannels.openOutput(localFile, false)) {
+                if (!retrieveFile(DirectorySync.remotePath(remoteRoot, path), outputStream)) {
+                    throw new IOException(client.getReplyString().trim());
+                }
+            }
+            if (modifiedTime != RemoteFileEntry.UNKNOWN_TIME) {
+                localFile.setLastModified(modifiedTime);
+            }
+        }
+
+        @Override
+        public void deleteRemote(RemoteFileEntry entry) throws IOException {
+            String remotePath = DirectorySync.remotePath(remoteRoot, entry.getPath());
+            invalidateManifest(remotePath);
+            metadataCache.invalidate(remotePath);
+            boolean deleted = entry.isDirectory() ? client.removeDirectory(remotePath) : client.deleteFile(remotePath);
+            if (!deleted) {
+                throw new IOException(client.getReplyString().trim());
+            }
+        }
+    }
+
     /**
      * This method is used to rename the file present on local machine
      *
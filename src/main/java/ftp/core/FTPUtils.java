@@ -11,14 +11,24 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.Set;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class FTPUtils {
     private static final Logger logger = LogManager.getLogger(FTPUtils.class);
 
+    // Files that are already compressed, compressing them again only costs CPU.
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "gz", "tgz", "zip", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "mov", "avi",
+            "docx", "xlsx", "pptx"));
+
     //Parse file name from filepath
     public static String getFileNameFromRemote(String filePath) {
         if (filePath.length() > 0) {
@@ -28,6 +38,12 @@ public class FTPUtils {
         return "";
     }
 
+    //Check if a file is worth compressing on the wire, from its extension
+    public static boolean isCompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 || !COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
     public static boolean renameLocalFile(String oldName, String newName) throws FTPClientException {
         try {
             if (org.codehaus.plexus.util.FileUtils.fileExists(oldName)) {
@@ -169,27 +185,27 @@ public class FTPUtils {
         return true;
     }
 
-    public static void searchFile(String userOption, File theDir) {
-        File[] the_list = theDir.listFiles();
-
-        if (the_list != null) {
-            for (int i = 0; i < the_list.length; i++) {
-                if (the_list[i].isFile() && the_list[i].getName().equals(userOption)) {
-                    System.out.println(the_list[i].getPath() + " found");
-                    break;
-                }
-                if (the_list[i].isDirectory() && the_list[i].getName().equals(userOption))
-                {
-                    System.out.println(the_list[i].getPath() +" "+ userOption + " is a directory not file");
-                    break;
-                }
-                if (i == (the_list.length - 1)) {
-                    System.out.println("file not found in the given location.");
-                }
-            }
-        } else {
+    /**
+     * This method is used to search a local directory and all its subdirectories for a file, using all the cores.
+     * Every match is printed as soon as it is found.
+     *
+     * @param userOption - exact file name, or a glob such as *.csv
+     * @param theDir - local directory to search in.
+     * @return [int] - number of files and directories found.
+     */
+    public static int searchFile(String userOption, File theDir) {
+        if (!theDir.isDirectory()) {
             System.out.println("No files found in this folder");
+            return 0;
+        }
+        boolean glob = userOption.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+        int found = LocalFileSearch.search(theDir.toPath(),
+                glob ? LocalFileSearch.matching(RemoteFileMatcher.glob(userOption)) : LocalFileSearch.named(userOption), 0,
+                match -> System.out.println(match + (match.toFile().isDirectory() ? " " + userOption + " is a directory not file" : " found")));
+        if (found == 0) {
+            System.out.println("file not found in the given location.");
         }
+        return found;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+package ftp.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * LocalFileChannels class - opens the local side of a transfer over a FileChannel.
+ *
+ * Reads and writes go through one large direct buffer, so the disk sees few large system calls instead
+ * of many 8 KB ones. The direct buffers are given back to a small pool when a stream is closed, so a batch
+ * of many small files reuses the same few buffers instead of leaving one per file for the GC to free.
+ * Files smaller than a direct buffer are read through a heap buffer of their own size.
+ * Files of at least MAPPED_READ_THRESHOLD bytes are read through memory mapped regions,
+ * so their bytes are copied from the page cache straight into the buffer of the network library.
+ */
+class LocalFileChannels {
+
+    static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+    static final long MAPPED_READ_THRESHOLD = 64L * 1024 * 1024;
+    // Files are mapped one region at a time, so a huge file does not need a huge address range.
+    private static final long MAPPED_REGION_SIZE = 256L * 1024 * 1024;
+    private static final int MIN_HEAP_BUFFER_SIZE = 8 * 1024;
+    // At most this many idle direct buffers are kept, a buffer given back to a full pool is left to the GC.
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    private LocalFileChannels() {
+    }
+
+    /**
+     * This method is used to open a local file for reading.
+     *
+     * @param file - local file.
+     * @return [InputStream] - memory mapped stream for large files, buffered stream otherwise.
+     * @throws IOException
+     */
+    static InputStream openInput(File file) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long size = fileChannel.size();
+        if (size >= MAPPED_READ_THRESHOLD) {
+            return new MappedInputStream(fileChannel);
+        }
+        if (size < DIRECT_BUFFER_SIZE) {
+            return new ChannelInputStream(fileChannel, ByteBuffer.allocate(Math.max(MIN_HEAP_BUFFER_SIZE, (int) size)));
+        }
+        return new ChannelInputStream(fileChannel, takeDirectBuffer());
+    }
+
+    /**
+     * This method is used to open a local file for writing, it is created if it does not exist.
+     *
+     * @param file - local file.
+     * @param append - true to write after the current end of the file, false to truncate it.
+     * @return [OutputStream] - stream that writes through a direct buffer.
+     * @throws IOException
+     */
+    static OutputStream openOutput(File file, boolean append) throws IOException {
+        FileChannel fileChannel = append
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new ChannelOutputStream(fileChannel, takeDirectBuffer());
+    }
+
+    private static ByteBuffer takeDirectBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void giveBack(ByteBuffer buffer) {
+        if (buffer.isDirect() && bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        }
+    }
+
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel fileChannel;
+        private final ByteBuffer buffer;
+        private boolean closed = false;
+
+        ChannelInputStream(FileChannel fileChannel, ByteBuffer buffer) {
+            this.fileChannel = fileChannel;
+            this.buffer = buffer;
+            buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (n <= 0) {
+                return 0;
+            }
+            int buffered = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + buffered);
+            long position = fileChannel.position();
+            long target = Math.min(fileChannel.size(), position + (n - buffered));
+            fileChannel.position(target);
+            return buffered + (target - position);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                giveBack(buffer);
+            }
+            fileChannel.close();
+        }
+
+        private boolean fill() throws IOException {
+            if (closed) {
+                // The buffer may already belong to another stream.
+                throw new IOException("Stream closed");
+            }
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            int read = 0;
+            while (read == 0) {
+                read = fileChannel.read(buffer);
+            }
+            buffer.flip();
+            return read > 0;
+        }
+    }
+
+    private static class MappedInputStream extends InputStream {
+        private final FileChannel fileChannel;
+        private final long size;
+        private long regionStart = 0;
+        private MappedByteBuffer region;
+
+        MappedInputStream(FileChannel fileChannel) throws IOException {
+            this.fileChannel = fileChannel;
+            this.size = fileChannel.size();
+            this.region = map(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextRegion() ? region.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextRegion()) {
+                return -1;
+            }
+            int count = Math.min(length, region.remaining());
+            region.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long position = Math.min(size, regionStart + region.position() + Math.max(0, n));
+            long skipped = position - regionStart - region.position();
+            regionStart = position;
+            region = map(position);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return region.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fileChannel.close();
+        }
+
+        private boolean nextRegion() throws IOException {
+            if (region.hasRemaining()) {
+                return true;
+            }
+            long nextStart = regionStart + region.capacity();
+            if (nextStart >= size) {
+                return false;
+            }
+            regionStart = nextStart;
+            region = map(nextStart);
+            return true;
+        }
+
+        private MappedByteBuffer map(long position) throws IOException {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, size - position));
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+        private final FileChannel fileChannel;
+        private final ByteBuffer buffer;
+        private boolean closed = false;
+
+        ChannelOutputStream(FileChannel fileChannel, ByteBuffer buffer) {
+            this.fileChannel = fileChannel;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkOpen();
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            checkOpen();
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int count = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            checkOpen();
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                drain();
+            } finally {
+                giveBack(buffer);
+                fileChannel.close();
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                // The buffer may already belong to another stream.
+                throw new IOException("Stream closed");
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
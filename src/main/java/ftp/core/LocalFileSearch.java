@@ -0,0 +1,164 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * LocalFileSearch class - searches a local directory tree with all the cores of the machine.
+ *
+ * Every directory is a ForkJoin task: it streams its entries, forks one task per subdirectory and tests
+ * its files against the filter. Matches are handed to the caller as soon as they are found, in no
+ * particular order. Symbolic links to directories are not followed, so a tree with a link loop ends.
+ *
+ * Filters receive the path relative to the root of the search, with '/' separators, and the attributes
+ * of the entry. They are built with the static methods of this class and combined with and()/or().
+ */
+public class LocalFileSearch {
+
+    private static final Logger logger = LogManager.getLogger(LocalFileSearch.class);
+
+    private final BiPredicate<String, BasicFileAttributes> filter;
+    private final int maxResults;
+    private final Consumer<Path> results;
+    private final AtomicInteger matches = new AtomicInteger();
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    private LocalFileSearch(BiPredicate<String, BasicFileAttributes> filter, int maxResults, Consumer<Path> results) {
+        this.filter = filter;
+        this.maxResults = maxResults;
+        this.results = results;
+    }
+
+    /**
+     * This method is used to search a local tree.
+     *
+     * @param root - directory the search starts from.
+     * @param filter - selects the files and directories to report.
+     * @param maxResults - the search stops after this many matches, 0 or negative for no limit.
+     * @param results - receives every match, one at a time.
+     * @return [int] - number of matches reported.
+     */
+    public static int search(Path root, BiPredicate<String, BasicFileAttributes> filter, int maxResults, Consumer<Path> results) {
+        LocalFileSearch search = new LocalFileSearch(filter, maxResults, results);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(search.new DirectoryTask(root, ""));
+        } finally {
+            pool.shutdown();
+        }
+        return search.matches.get();
+    }
+
+    /**
+     * @param matcher - eg: RemoteFileMatcher.glob("*.csv"), matched against the relative path.
+     * @return [BiPredicate] - filter on the name or the relative path.
+     */
+    public static BiPredicate<String, BasicFileAttributes> matching(RemoteFileMatcher matcher) {
+        return (relativePath, attributes) -> matcher.matches(relativePath, attributes.isDirectory());
+    }
+
+    /**
+     * @param name - exact file or directory name.
+     * @return [BiPredicate] - filter on the name.
+     */
+    public static BiPredicate<String, BasicFileAttributes> named(String name) {
+        return (relativePath, attributes) -> relativePath.substring(relativePath.lastIndexOf('/') + 1).equals(name);
+    }
+
+    /**
+     * @param minSize - smallest size in bytes.
+     * @param maxSize - largest size in bytes, Long.MAX_VALUE for no limit.
+     * @return [BiPredicate] - filter on regular files only.
+     */
+    public static BiPredicate<String, BasicFileAttributes> sizeBetween(long minSize, long maxSize) {
+        return (relativePath, attributes) -> attributes.isRegularFile() && attributes.size() >= minSize && attributes.size() <= maxSize;
+    }
+
+    /**
+     * @param from - oldest modification time, in milliseconds since the epoch.
+     * @param to - newest modification time, Long.MAX_VALUE for no limit.
+     * @return [BiPredicate] - filter on the modification time.
+     */
+    public static BiPredicate<String, BasicFileAttributes> modifiedBetween(long from, long to) {
+        return (relativePath, attributes) -> {
+            long modifiedTime = attributes.lastModifiedTime().toMillis();
+            return modifiedTime >= from && modifiedTime <= to;
+        };
+    }
+
+    private void report(Path match) {
+        if (stopped.get()) {
+            return;
+        }
+        int count = matches.incrementAndGet();
+        if (maxResults > 0 && count > maxResults) {
+            matches.decrementAndGet();
+            stopped.set(true);
+            return;
+        }
+        synchronized (results) {
+            results.accept(match);
+        }
+        if (maxResults > 0 && count == maxResults) {
+            stopped.set(true);
+        }
+    }
+
+    /**
+     * DirectoryTask class - searches one directory, and forks a task for each of its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String relativeDir;
+
+        DirectoryTask(Path dir, String relativeDir) {
+            this.dir = dir;
+            this.relativeDir = relativeDir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (stopped.get()) {
+                        break;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    String name = entry.getFileName().toString();
+                    String relativePath = relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+                    if (filter.test(relativePath, attributes)) {
+                        report(entry);
+                    }
+                    if (attributes.isDirectory()) {
+                        DirectoryTask subTask = new DirectoryTask(entry, relativePath);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Skipping " + dir + " : " + e.getMessage());
+            }
+            for (DirectoryTask subTask : subTasks) {
+                subTask.join();
+            }
+        }
+    }
+}
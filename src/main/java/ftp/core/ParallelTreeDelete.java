@@ -0,0 +1,296 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelTreeDelete class - deletes a remote tree with several connections at once.
+ *
+ * Every worker owns one connection (an FTP login or an SFTP channel) and takes steps from a shared queue.
+ * A step either lists a directory, which queues its subdirectories and its files, or deletes one file. So
+ * the tree is listed only once, and the files are deleted while the rest of the tree is still being listed.
+ * When no step is left, the directories are removed level by level, the deepest level first, so that every
+ * directory is empty when it is removed. A failure is recorded in the summary and the job goes on, only the
+ * directories above a file that could not be deleted are kept.
+ *
+ * The connection of the caller is given as a fallback: if no worker connection can be opened (eg: the server
+ * limits the number of logins), or if no worker is asked for, the steps are run with it on the calling thread.
+ */
+class ParallelTreeDelete {
+
+    private static final Logger logger = LogManager.getLogger(ParallelTreeDelete.class);
+    private static final long POLL_MILLIS = 100;
+    private static final long PROGRESS_MILLIS = 10_000;
+    // Trees with at most this many entries are deleted with the connection of the caller only.
+    static final int SMALL_TREE_ENTRIES = 200;
+
+    /**
+     * TreeRemover interface - one connection of a worker.
+     */
+    interface TreeRemover extends Closeable {
+        /**
+         * @return [boolean] - false if the directory could not be listed.
+         */
+        boolean read(String remoteDir, RemoteEntryVisitor visitor) throws IOException;
+
+        /**
+         * @return [boolean] - true if the file was deleted.
+         */
+        boolean deleteFile(String remotePath) throws IOException;
+
+        /**
+         * @return [boolean] - true if the empty directory was removed.
+         */
+        boolean removeDirectory(String remoteDir) throws IOException;
+    }
+
+    /**
+     * RemoverFactory interface - opens the connection of a worker.
+     */
+    interface RemoverFactory {
+        TreeRemover open() throws IOException;
+    }
+
+    private static class Step {
+        final String remotePath;
+        final long size;
+        final int depth;
+        final boolean list;
+        final boolean remove;
+
+        Step(String remotePath, long size, int depth, boolean list, boolean remove) {
+            this.remotePath = remotePath;
+            this.size = size;
+            this.depth = depth;
+            this.list = list;
+            this.remove = remove;
+        }
+    }
+
+    private final String remoteRoot;
+    private final TransferSummary summary = new TransferSummary();
+    private final BlockingQueue<Step> queue = new LinkedBlockingQueue<>();
+    // Steps that are queued or running, a phase is over when it drops to 0.
+    private final AtomicInteger pendingSteps = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final AtomicInteger directoriesRemoved = new AtomicInteger();
+    // Directories that were listed, with their depth below the root.
+    private final Queue<Step> directories = new ConcurrentLinkedQueue<>();
+    // Directories that still hold an entry that could not be deleted.
+    private final Set<String> keptDirectories = ConcurrentHashMap.newKeySet();
+
+    private ParallelTreeDelete(String remoteRoot) {
+        this.remoteRoot = remoteRoot;
+    }
+
+    /**
+     * This method is used to delete a remote tree, remoteRoot included.
+     *
+     * @param remoteRoot - directory to delete.
+     * @param workers - number of extra connections that list and delete at once, 0 to use only the fallback.
+     * @param factory - opens the connection of every worker.
+     * @param fallback - connection of the caller, used when no worker is running. It is not closed.
+     * @return [TransferSummary] - deleted files and their size, and every path that could not be deleted.
+     */
+    static TransferSummary delete(String remoteRoot, int workers, RemoverFactory factory, TreeRemover fallback) {
+        ParallelTreeDelete delete = new ParallelTreeDelete(remoteRoot);
+        ExecutorService executor = null;
+        if (workers > 0) {
+            executor = Executors.newFixedThreadPool(workers);
+            for (int i = 0; i < workers; i++) {
+                executor.submit(() -> delete.work(factory));
+            }
+            executor.shutdown();
+        }
+        try {
+            delete.submit(new Step(remoteRoot, 0, 0, true, false));
+            if (delete.awaitSteps(executor, fallback)) {
+                // Children are always one level deeper than their parent, so a level can be removed at once.
+                Map<Integer, List<String>> levels = new TreeMap<>(Collections.reverseOrder());
+                for (Step directory : delete.directories) {
+                    levels.computeIfAbsent(directory.depth, depth -> new ArrayList<>()).add(directory.remotePath);
+                }
+                for (Map.Entry<Integer, List<String>> level : levels.entrySet()) {
+                    for (String directory : level.getValue()) {
+                        delete.submit(new Step(directory, 0, level.getKey(), false, true));
+                    }
+                    if (!delete.awaitSteps(executor, fallback)) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            delete.finished.set(true);
+        }
+        if (executor != null) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Steps that no worker took, because no connection could be opened.
+        for (Step step = delete.queue.poll(); step != null; step = delete.queue.poll()) {
+            delete.summary.recordFailure(step.remotePath, "No connection available to delete the entry");
+        }
+        delete.summary.finish();
+        logger.info("Deleted " + delete.summary.getFilesTransferred() + " file(s) and "
+                + delete.directoriesRemoved.get() + " directories under " + remoteRoot);
+        return delete.summary;
+    }
+
+    /**
+     * This method is used to decide if a tree is small enough to be deleted without extra connections.
+     * The tree is listed breadth first, and the listing stops as soon as it has more than `limit` entries.
+     *
+     * @param remoteRoot - directory to delete.
+     * @param reader - connection of the caller.
+     * @param limit - eg: SMALL_TREE_ENTRIES
+     * @return [boolean] - true if the tree has at most `limit` entries, or if it cannot be listed.
+     * @throws IOException
+     */
+    static boolean isSmallTree(String remoteRoot, TreeRemover reader, int limit) throws IOException {
+        Queue<String> pending = new ArrayDeque<>();
+        pending.add(remoteRoot);
+        int[] entries = {0};
+        while (!pending.isEmpty()) {
+            String dir = pending.poll();
+            reader.read(dir, entry -> {
+                if (entry.isDirectory()) {
+                    pending.add(DirectorySync.remotePath(dir, entry.getPath()));
+                }
+                return ++entries[0] <= limit;
+            });
+            if (entries[0] > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void submit(Step step) {
+        pendingSteps.incrementAndGet();
+        queue.add(step);
+    }
+
+    /**
+     * This method is used to wait until every queued step is done. When no worker is running, the steps
+     * that are left are run with the fallback connection on the calling thread.
+     *
+     * @return [boolean] - false if the steps could not be run.
+     */
+    private boolean awaitSteps(ExecutorService executor, TreeRemover fallback) throws InterruptedException {
+        long lastProgress = System.currentTimeMillis();
+        while (pendingSteps.get() > 0) {
+            if (executor == null || executor.isTerminated()) {
+                if (fallback == null) {
+                    return false;
+                }
+                // No worker takes steps anymore, so the queue only changes on this thread.
+                for (Step step = queue.poll(); step != null; step = queue.poll()) {
+                    runStep(fallback, step);
+                }
+                return true;
+            }
+            Thread.sleep(POLL_MILLIS);
+            if (System.currentTimeMillis() - lastProgress >= PROGRESS_MILLIS) {
+                lastProgress = System.currentTimeMillis();
+                logger.info("Deleting " + remoteRoot + " : " + summary.getFilesTransferred() + " file(s) deleted, "
+                        + summary.getFailures().size() + " failed, " + pendingSteps.get() + " step(s) left");
+            }
+        }
+        return true;
+    }
+
+    private void work(RemoverFactory factory) {
+        try (TreeRemover remover = factory.open()) {
+            while (!finished.get()) {
+                Step step = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (step != null) {
+                    runStep(remover, step);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not open a delete connection : " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runStep(TreeRemover remover, Step step) {
+        try {
+            run(remover, step);
+        } catch (IOException e) {
+            fail(step.remotePath, e.getMessage());
+        } finally {
+            pendingSteps.decrementAndGet();
+        }
+    }
+
+    private void run(TreeRemover remover, Step step) throws IOException {
+        if (step.list) {
+            // The listing only queues steps, the connection cannot delete while it is listing.
+            boolean listed = remover.read(step.remotePath, entry -> {
+                String remotePath = DirectorySync.remotePath(step.remotePath, entry.getPath());
+                submit(new Step(remotePath, entry.getSize(), step.depth + 1, entry.isDirectory(), false));
+                return true;
+            });
+            if (listed) {
+                directories.add(step);
+            } else {
+                fail(step.remotePath, "Could not list the directory");
+            }
+        } else if (step.remove) {
+            if (keptDirectories.contains(step.remotePath)) {
+                summary.recordFailure(step.remotePath, "Directory kept, some of its entries could not be deleted");
+            } else if (remover.removeDirectory(step.remotePath)) {
+                directoriesRemoved.incrementAndGet();
+            } else {
+                fail(step.remotePath, "Could not remove the directory");
+            }
+        } else if (remover.deleteFile(step.remotePath)) {
+            summary.recordSuccess(step.size);
+        } else {
+            fail(step.remotePath, "Could not delete the file");
+        }
+    }
+
+    /**
+     * This method is used to record a failure, and to keep every directory above the failed path.
+     */
+    private void fail(String remotePath, String reason) {
+        summary.recordFailure(remotePath, reason);
+        String path = remotePath;
+        while (path.length() > remoteRoot.length()) {
+            int slash = path.lastIndexOf('/', path.length() - 2);
+            if (slash < 0) {
+                break;
+            }
+            path = path.substring(0, slash);
+            keptDirectories.add(path);
+            keptDirectories.add(path + "/");
+        }
+    }
+}
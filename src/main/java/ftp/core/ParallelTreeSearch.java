@@ -0,0 +1,214 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelTreeSearch class - searches a remote tree breadth first with several connections at once.
+ *
+ * Every worker owns one connection (an FTP login or an SFTP channel). The workers take directories from a
+ * shared queue, stream their listing, queue the subdirectories and report the entries that match as soon
+ * as they are listed. The search ends when no directory is left, or as soon as enough entries matched.
+ * A tree that a RemoteTreeManifest already holds is searched with searchListed() instead, without listing.
+ */
+class ParallelTreeSearch {
+
+    private static final Logger logger = LogManager.getLogger(ParallelTreeSearch.class);
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * DirectoryReader interface - one connection of a worker.
+     */
+    interface DirectoryReader extends Closeable {
+        /**
+         * @return [boolean] - false if the directory could not be listed.
+         */
+        boolean read(String remoteDir, RemoteEntryVisitor visitor) throws IOException;
+    }
+
+    /**
+     * ReaderFactory interface - opens the connection of a worker.
+     */
+    interface ReaderFactory {
+        DirectoryReader open() throws IOException;
+    }
+
+    private static class SearchTask {
+        final String remoteDir;
+        final String relativeDir;
+        final int depth;
+
+        SearchTask(String remoteDir, String relativeDir, int depth) {
+            this.remoteDir = remoteDir;
+            this.relativeDir = relativeDir;
+            this.depth = depth;
+        }
+    }
+
+    private final RemoteFileMatcher matcher;
+    private final int maxDepth;
+    private final int maxResults;
+    private final RemoteEntryVisitor results;
+
+    private final BlockingQueue<SearchTask> queue = new LinkedBlockingQueue<>();
+    // Directories that are queued or being listed, the search is over when it drops to 0.
+    private final AtomicInteger pendingDirectories = new AtomicInteger();
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private int matches = 0;
+    private IOException failure = null;
+
+    private ParallelTreeSearch(RemoteFileMatcher matcher, int maxDepth, int maxResults, RemoteEntryVisitor results) {
+        this.matcher = matcher;
+        this.maxDepth = maxDepth;
+        this.maxResults = maxResults;
+        this.results = results;
+    }
+
+    /**
+     * This method is used to search a remote tree.
+     *
+     * @param remoteRoot - directory the search starts from.
+     * @param matcher - selects the entries to report.
+     * @param maxDepth - number of directory levels below remoteRoot that are searched, negative for no limit.
+     * @param maxResults - the search stops after this many matches, 0 or negative for no limit.
+     * @param workers - number of connections that list directories at once.
+     * @param factory - opens the connection of every worker.
+     * @param results - receives every match, with its full remote path, one at a time. It can stop the search.
+     * @return [int] - number of matches reported.
+     * @throws IOException - if no connection could be opened, or if the results visitor failed.
+     */
+    static int search(String remoteRoot, RemoteFileMatcher matcher, int maxDepth, int maxResults, int workers,
+                      ReaderFactory factory, RemoteEntryVisitor results) throws IOException {
+        ParallelTreeSearch search = new ParallelTreeSearch(matcher, maxDepth, maxResults, results);
+        search.pendingDirectories.incrementAndGet();
+        search.queue.add(new SearchTask(remoteRoot, "", 0));
+        int workerCount = Math.max(1, workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> search.work(factory));
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Still searching " + remoteRoot + ", " + search.pendingDirectories.get() + " directories left");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            search.stopped.set(true);
+        }
+        if (search.failure != null) {
+            throw search.failure;
+        }
+        if (search.openReaders.get() == 0) {
+            throw new IOException("Could not open any connection to search " + remoteRoot);
+        }
+        return search.matches;
+    }
+
+    /**
+     * This method is used to search a tree that is already listed, eg: by a RemoteTreeManifest, with the
+     * same depth and result limits as search().
+     *
+     * @param remoteRoot - directory the search starts from.
+     * @param tree - entries by path relative to remoteRoot.
+     * @param matcher - selects the entries to report.
+     * @param maxDepth - number of directory levels below remoteRoot that are searched, negative for no limit.
+     * @param maxResults - the search stops after this many matches, 0 or negative for no limit.
+     * @param results - receives every match, with its full remote path, one at a time. It can stop the search.
+     * @return [int] - number of matches reported.
+     * @throws IOException - if the results visitor failed.
+     */
+    static int searchListed(String remoteRoot, Map<String, RemoteFileEntry> tree, RemoteFileMatcher matcher, int maxDepth,
+                            int maxResults, RemoteEntryVisitor results) throws IOException {
+        int matches = 0;
+        for (RemoteFileEntry entry : tree.values()) {
+            String relativePath = entry.getPath();
+            // An entry of remoteRoot is at depth 0, one slash deeper for every directory level.
+            int depth = relativePath.length() - relativePath.replace("/", "").length();
+            if ((maxDepth >= 0 && depth > maxDepth) || !matcher.matches(relativePath, entry.isDirectory())) {
+                continue;
+            }
+            matches++;
+            RemoteFileEntry match = new RemoteFileEntry(DirectorySync.remotePath(remoteRoot, relativePath), entry.getSize(),
+                    entry.getModifiedTime(), entry.isDirectory());
+            if (!results.visit(match) || (maxResults > 0 && matches >= maxResults)) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private void work(ReaderFactory factory) {
+        try (DirectoryReader reader = factory.open()) {
+            openReaders.incrementAndGet();
+            while (!stopped.get()) {
+                SearchTask task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (task == null) {
+                    if (pendingDirectories.get() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    if (!reader.read(task.remoteDir, entry -> visit(task, entry))) {
+                        logger.info("Could not list " + task.remoteDir + ", skipping it");
+                    }
+                } catch (IOException e) {
+                    logger.error("Error while listing " + task.remoteDir + " : " + e.getMessage());
+                } finally {
+                    pendingDirectories.decrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not open a search connection : " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean visit(SearchTask task, RemoteFileEntry entry) {
+        if (stopped.get()) {
+            return false;
+        }
+        String relativePath = task.relativeDir.isEmpty() ? entry.getPath() : task.relativeDir + "/" + entry.getPath();
+        String remotePath = DirectorySync.remotePath(task.remoteDir, entry.getPath());
+        if (entry.isDirectory() && (maxDepth < 0 || task.depth < maxDepth)) {
+            pendingDirectories.incrementAndGet();
+            queue.add(new SearchTask(remotePath, relativePath, task.depth + 1));
+        }
+        if (matcher.matches(relativePath, entry.isDirectory())) {
+            report(new RemoteFileEntry(remotePath, entry.getSize(), entry.getModifiedTime(), entry.isDirectory()));
+        }
+        return !stopped.get();
+    }
+
+    private synchronized void report(RemoteFileEntry match) {
+        if (stopped.get()) {
+            return;
+        }
+        matches++;
+        try {
+            if (!results.visit(match)) {
+                stopped.set(true);
+            }
+        } catch (IOException e) {
+            failure = e;
+            stopped.set(true);
+        }
+        if (maxResults > 0 && matches >= maxResults) {
+            stopped.set(true);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.commons.net.ftp.FTPClient;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Map;
 
 public interface RemoteConnection {
 
@@ -12,6 +13,14 @@ public interface RemoteConnection {
 
     void disconnect() throws FTPClientException;
 
+    boolean isConnected();
+
+    void setTransferProfile(TransferProfile transferProfile);
+
+    void setCompressionEnabled(boolean compressionEnabled);
+
+    CompressionStats getCompressionStats();
+
     boolean createNewDirectory(String dirName) throws FTPClientException, IOException;
 
     void getCurrentRemoteDirectory() throws FTPClientException;
@@ -20,6 +29,8 @@ public interface RemoteConnection {
 
     boolean checkFileExists(String filePath) throws FTPClientException, IOException;
 
+    RemoteFileEntry statRemoteFile(String remotePath) throws FTPClientException;
+
     boolean checkLocalDirectoryExists(String dirPath) throws FileNotFoundException;
 
     boolean checkRemoteDirectoryExists(String dirPath) throws FTPClientException;
@@ -28,26 +39,56 @@ public interface RemoteConnection {
 
     boolean deleteDirectory(String dirPath) throws  FTPClientException;
 
-    void uploadSingleFile(String localFilePath, String remoteFilePath) throws IOException, FTPClientException;
+    TransferSummary deleteDirectoryParallel(String dirPath, int connections);
+
+    boolean uploadSingleFile(String localFilePath, String remoteFilePath) throws IOException, FTPClientException;
 
     void uploadMultipleFiles(String[] localPaths, String remotePath);
 
     boolean downloadSingleFile(String localPath, String remotePath) throws IOException, FTPClientException;
 
+    boolean downloadFileToDirectory(String localDir, String remoteFilePath) throws IOException, FTPClientException;
+
     boolean downloadMultipleFiles(String[] localPaths, String remotePath) throws IOException;
 
+    boolean uploadSingleFileResumable(String localFilePath, String remotePath, TransferJournal journal) throws IOException, FTPClientException;
+
+    void uploadMultipleFilesResumable(String[] localPaths, String remotePath, TransferJournal journal);
+
+    boolean downloadSingleFileResumable(String localPath, String remoteFilePath, TransferJournal journal) throws IOException, FTPClientException;
+
     boolean renameRemoteFile(String oldName, String newName) throws FTPClientException;
 
+    TransferSummary renameRemoteFiles(Map<String, String> renames);
+
+    TransferSummary renameRemoteFiles(String remoteDir, String regex, String replacement);
+
     boolean copyDirectory(String toCopy, String newDir) throws FTPClientException, IOException;
 
+    TransferSummary copyDirectoryStreamed(String sourceDir, String desDir, int parallel) throws FTPClientException;
+
     int searchFilesWithKeyword(String filePath, String keyword) throws FTPClientException;
 
     int searchFilesWithExtension(String filePath, String extension) throws FTPClientException;
 
+    int searchTree(String remoteDir, RemoteFileMatcher matcher, int maxDepth, int maxResults, RemoteEntryVisitor results) throws FTPClientException;
+
     boolean downloadDirectory(String currentDir, String saveDir) throws IOException, FTPClientException;
 
     boolean uploadDirectory(String localParentDir, String remoteParentDir) throws IOException, FTPClientException;
 
+    void setRemoteTreeManifest(RemoteTreeManifest remoteTreeManifest);
+
+    void setMetadataCache(RemoteMetadataCache metadataCache);
+
+    boolean streamDirectory(String remoteDir, RemoteEntryVisitor visitor) throws FTPClientException;
+
+    Map<String, RemoteFileEntry> listRemoteTree(String remoteDir) throws FTPClientException;
+
+    Map<String, RemoteFileEntry> listRemoteTree(String remoteDir, RemoteTreeManifest manifest) throws FTPClientException;
+
+    TransferSummary sync(String localDir, String remoteDir, SyncDirection direction, boolean deleteExtraneous, boolean dryRun) throws FTPClientException;
+
     boolean renameLocalFile(String oldName, String newName) throws FTPClientException;
 
     boolean changePermission(String permissions, String inputPath);
@@ -2,6 +2,8 @@ package ftp.core;
 
 public class RemoteConnectionFactory {
 
+    private static final RemoteConnectionPool sharedPool = new RemoteConnectionPool();
+
     public RemoteConnection getInstance(String protocol) {
         if ("SFTP".equalsIgnoreCase(protocol)) {
             return new SFTPConnection();
@@ -9,4 +11,20 @@ public class RemoteConnectionFactory {
             return new FTPConnection();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * This method is used to get an already logged in connection from the shared connection pool.
+     * The connection must be given back with releaseInstance() once the caller is done with it.
+     */
+    public RemoteConnection getPooledInstance(String protocol, String hostName, String userName, String password) throws FTPClientException {
+        return sharedPool.borrow(protocol, hostName, userName, password);
+    }
+
+    public void releaseInstance(RemoteConnection remoteConnection) {
+        sharedPool.release(remoteConnection);
+    }
+
+    public RemoteConnectionPool getConnectionPool() {
+        return sharedPool;
+    }
+}
@@ -0,0 +1,258 @@
+package ftp.core;
+
+import com.google.common.hash.Hashing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RemoteConnectionPool class - keeps logged in RemoteConnection's, keyed by protocol, host, user and password,
+ * so that many transfers in the same JVM can reuse connections instead of paying a new login every time.
+ * The password is part of the key (as a salted hash), so a connection is only reused by a caller that
+ * could have logged it in.
+ *
+ * Every borrowed connection belongs to the thread that borrowed it, until it is released back to the pool.
+ * Connections are validated when they are borrowed, idle connections are closed after the idle timeout,
+ * and at most `maxPerKey` connections (idle + borrowed) exist for the same key.
+ */
+public class RemoteConnectionPool {
+
+    private static final Logger logger = LogManager.getLogger(RemoteConnectionPool.class);
+
+    public static final int DEFAULT_MAX_PER_KEY = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int maxPerKey;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final RemoteConnectionFactory factory = new RemoteConnectionFactory();
+    // Salt of the password hashes in the keys, so that the keys do not reveal a password outside of this pool.
+    private final byte[] passwordSalt = new byte[16];
+    private final Map<String, Deque<IdleConnection>> idleConnections = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final Map<RemoteConnection, String> borrowed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    public RemoteConnectionPool() {
+        this(DEFAULT_MAX_PER_KEY, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxPerKey - maximum number of connections for the same protocol, host, user and password.
+     * @param idleTimeoutMillis - idle connections older than this are disconnected.
+     * @param borrowTimeoutMillis - how long borrow waits for a free slot, before failing.
+     */
+    public RemoteConnectionPool(int maxPerKey, long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this.maxPerKey = Math.max(1, maxPerKey);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        new SecureRandom().nextBytes(passwordSalt);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method is used to get a logged in connection. An idle connection is reused if it still answers,
+     * otherwise a new connection is opened.
+     *
+     * @param protocol - FTP or SFTP.
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @param userName - client name
+     * @param password - client password
+     * @return [RemoteConnection] - connected instance, that must be given back with release().
+     * @throws FTPClientException - if the pool is full for too long, or the login fails.
+     */
+    public RemoteConnection borrow(String protocol, String hostName, String userName, String password) throws FTPClientException {
+        if (closed) {
+            throw new FTPClientException("Connection pool is closed");
+        }
+        String key = poolKey(protocol, hostName, userName, password);
+        Semaphore semaphore = permits.computeIfAbsent(key, k -> new Semaphore(maxPerKey, true));
+        try {
+            if (!semaphore.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new FTPClientException("Timed out waiting for a free connection to " + displayName(key));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        try {
+            RemoteConnection connection = takeValidIdleConnection(key);
+            if (connection == null) {
+                connection = openConnection(protocol, hostName, userName, password);
+            }
+            borrowed.put(connection, key);
+            return connection;
+        } catch (FTPClientException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    /**
+     * This method is used to give a borrowed connection back to the pool.
+     *
+     * @param connection - connection returned by borrow().
+     */
+    public void release(RemoteConnection connection) {
+        String key = borrowed.remove(connection);
+        if (key == null) {
+            logger.debug("Released connection does not belong to this pool");
+            return;
+        }
+        if (closed) {
+            closeQuietly(connection);
+        } else {
+            Deque<IdleConnection> idle = idleConnections.computeIfAbsent(key, k -> new ArrayDeque<>());
+            synchronized (idle) {
+                idle.push(new IdleConnection(connection));
+            }
+        }
+        permits.get(key).release();
+    }
+
+    /**
+     * This method is used to drop a borrowed connection that is known to be broken, instead of releasing it.
+     *
+     * @param connection - connection returned by borrow().
+     */
+    public void invalidate(RemoteConnection connection) {
+        String key = borrowed.remove(connection);
+        closeQuietly(connection);
+        if (key != null) {
+            permits.get(key).release();
+        }
+    }
+
+    /**
+     * @return [int] - number of idle connections in the pool, for all keys.
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Deque<IdleConnection> idle : idleConnections.values()) {
+            synchronized (idle) {
+                count += idle.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method is used to disconnect all idle connections and stop the pool. Borrowed connections are
+     * disconnected when they are released.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (Deque<IdleConnection> idle : idleConnections.values()) {
+            List<IdleConnection> toClose;
+            synchronized (idle) {
+                toClose = new ArrayList<>(idle);
+                idle.clear();
+            }
+            for (IdleConnection idleConnection : toClose) {
+                closeQuietly(idleConnection.connection);
+            }
+        }
+    }
+
+    private RemoteConnection takeValidIdleConnection(String key) {
+        Deque<IdleConnection> idle = idleConnections.get(key);
+        if (idle == null) {
+            return null;
+        }
+        while (true) {
+            IdleConnection idleConnection;
+            synchronized (idle) {
+                idleConnection = idle.poll();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            if (idleConnection.connection.isConnected()) {
+                return idleConnection.connection;
+            }
+            logger.debug("Dropping stale connection for " + displayName(key));
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private RemoteConnection openConnection(String protocol, String hostName, String userName, String password) throws FTPClientException {
+        RemoteConnection connection = factory.getInstance(protocol);
+        if (connection.connect(hostName, userName, password) != 1) {
+            throw new FTPClientException("Could not log in to " + displayName(poolKey(protocol, hostName, userName, password)));
+        }
+        logger.debug("Opened new pooled connection to " + hostName);
+        return connection;
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Deque<IdleConnection>> entry : idleConnections.entrySet()) {
+            List<IdleConnection> expired = new ArrayList<>();
+            Deque<IdleConnection> idle = entry.getValue();
+            synchronized (idle) {
+                // Connections are pushed on the head, so the oldest ones are at the tail.
+                while (!idle.isEmpty() && now - idle.peekLast().idleSince > idleTimeoutMillis) {
+                    expired.add(idle.pollLast());
+                }
+            }
+            for (IdleConnection idleConnection : expired) {
+                logger.debug("Evicting idle connection for " + displayName(entry.getKey()));
+                closeQuietly(idleConnection.connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(RemoteConnection connection) {
+        try {
+            connection.disconnect();
+        } catch (FTPClientException | RuntimeException e) {
+            logger.debug("Error while closing pooled connection : " + e.getMessage());
+        }
+    }
+
+    private String poolKey(String protocol, String hostName, String userName, String password) {
+        String normalizedProtocol = "SFTP".equalsIgnoreCase(protocol) ? "SFTP" : "FTP";
+        String passwordHash = Hashing.sha256().newHasher()
+                .putBytes(passwordSalt)
+                .putString(password == null ? "" : password, StandardCharsets.UTF_8)
+                .hash().toString();
+        return normalizedProtocol + "://" + userName + "@" + hostName + "#" + passwordHash;
+    }
+
+    /**
+     * @return [String] - the key without the password hash, for messages.
+     */
+    private static String displayName(String key) {
+        return key.substring(0, key.lastIndexOf('#'));
+    }
+
+    private static class IdleConnection {
+        private final RemoteConnection connection;
+        private final long idleSince = System.currentTimeMillis();
+
+        IdleConnection(RemoteConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
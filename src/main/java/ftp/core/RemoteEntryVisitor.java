@@ -0,0 +1,17 @@
+package ftp.core;
+
+import java.io.IOException;
+
+/**
+ * RemoteEntryVisitor interface - receives the entries of a remote directory one at a time, while the listing
+ * is being read, so that a huge directory never has to be held in memory as a whole.
+ */
+public interface RemoteEntryVisitor {
+
+    /**
+     * @param entry - one entry of the directory, with its name as path. "." and ".." are never passed.
+     * @return [boolean] - true to receive the next entry, false to stop the listing.
+     * @throws IOException
+     */
+    boolean visit(RemoteFileEntry entry) throws IOException;
+}
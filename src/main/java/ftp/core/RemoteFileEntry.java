@@ -0,0 +1,50 @@
+package ftp.core;
+
+/**
+ * RemoteFileEntry class - one file or directory of a directory tree, with the attributes that are needed
+ * to decide if it changed: its path relative to the root of the tree, size and modification time.
+ */
+public class RemoteFileEntry {
+
+    // Modification time of entries that come from a listing without exact timestamps.
+    public static final long UNKNOWN_TIME = -1;
+
+    private final String path;
+    private final long size;
+    private final long modifiedTime;
+    private final boolean directory;
+
+    /**
+     * @param path - path relative to the root of the tree, with '/' separators.
+     * @param size - size in bytes, 0 for directories.
+     * @param modifiedTime - modification time in milliseconds since the epoch, or UNKNOWN_TIME.
+     * @param directory - true for a directory.
+     */
+    public RemoteFileEntry(String path, long size, long modifiedTime, boolean directory) {
+        this.path = path;
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+        this.directory = directory;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String toString() {
+        return path + (directory ? "/" : " (" + size + " bytes)");
+    }
+}
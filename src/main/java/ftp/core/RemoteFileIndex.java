@@ -0,0 +1,333 @@
+package ftp.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RemoteFileIndex class - an index of every path of a remote tree, kept on disk, that answers keyword and
+ * extension searches without talking to the server.
+ *
+ * The index is refreshed through a RemoteTreeManifest, so a refresh only lists the directories whose
+ * modification time changed. File names are indexed by trigram (every 3 consecutive characters, lower cased)
+ * and by extension. A keyword query intersects the lists of its trigrams and checks the few candidates left.
+ *
+ * Queries see the index as of its last refresh, see getAgeMillis(). search() falls back to a live search
+ * when the index is older than the caller accepts.
+ */
+public class RemoteFileIndex {
+
+    private static final Logger logger = LogManager.getLogger(RemoteFileIndex.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * IndexFile class - what is written to disk.
+     */
+    public static class IndexFile {
+        public String remoteRoot;
+        public long refreshedAt;
+        public List<RemoteTreeManifest.CachedEntry> entries = new ArrayList<>();
+    }
+
+    /**
+     * Snapshot class - one immutable version of the index, replaced as a whole by every refresh.
+     */
+    private static class Snapshot {
+        final String remoteRoot;
+        final long refreshedAt;
+        final List<RemoteFileEntry> entries;
+        final Map<Long, int[]> trigrams;
+        final Map<String, int[]> extensions;
+
+        Snapshot(String remoteRoot, long refreshedAt, List<RemoteFileEntry> entries) {
+            this.remoteRoot = remoteRoot;
+            this.refreshedAt = refreshedAt;
+            this.entries = entries;
+            Map<Long, List<Integer>> trigramLists = new HashMap<>();
+            Map<String, List<Integer>> extensionLists = new HashMap<>();
+            for (int id = 0; id < entries.size(); id++) {
+                RemoteFileEntry entry = entries.get(id);
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = nameOf(entry.getPath()).toLowerCase();
+                for (int i = 0; i + 3 <= name.length(); i++) {
+                    // A name that repeats a trigram is listed once, the ids stay sorted.
+                    List<Integer> ids = trigramLists.computeIfAbsent(trigram(name, i), key -> new ArrayList<>());
+                    if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+                        ids.add(id);
+                    }
+                }
+                int dot = name.lastIndexOf('.');
+                if (dot >= 0) {
+                    extensionLists.computeIfAbsent(name.substring(dot), key -> new ArrayList<>()).add(id);
+                }
+            }
+            this.trigrams = toArrays(trigramLists);
+            this.extensions = toArrays(extensionLists);
+        }
+    }
+
+    private final File indexFile;
+    private final RemoteTreeManifest manifest;
+    private volatile Snapshot snapshot = null;
+    private ScheduledExecutorService refresher = null;
+
+    /**
+     * @param indexFile - file the index is kept in, it is loaded if it exists. The manifest used to refresh
+     *                  the index is kept next to it, with the ".manifest" suffix.
+     */
+    public RemoteFileIndex(File indexFile) {
+        this.indexFile = indexFile;
+        this.manifest = new RemoteTreeManifest(new File(indexFile.getPath() + ".manifest"));
+        if (indexFile.isFile()) {
+            try {
+                IndexFile stored = objectMapper.readValue(indexFile, IndexFile.class);
+                List<RemoteFileEntry> entries = new ArrayList<>(stored.entries.size());
+                for (RemoteTreeManifest.CachedEntry entry : stored.entries) {
+                    entries.add(new RemoteFileEntry(entry.name, entry.size, entry.modifiedTime, entry.directory));
+                }
+                snapshot = new Snapshot(stored.remoteRoot, stored.refreshedAt, entries);
+            } catch (IOException e) {
+                logger.error("Ignoring unreadable index [" + indexFile + "] : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method is used to bring the index up to date with the remote tree, listing only the directories
+     * that changed since the last refresh. The connection must not be used by another thread meanwhile.
+     *
+     * @param connection - connection used to list the tree.
+     * @param remoteRoot - root of the indexed tree.
+     * @throws FTPClientException
+     */
+    public void refresh(RemoteConnection connection, String remoteRoot) throws FTPClientException {
+        long startedAt = System.currentTimeMillis();
+        Map<String, RemoteFileEntry> tree = connection.listRemoteTree(remoteRoot, manifest);
+        Snapshot refreshed = new Snapshot(remoteRoot, startedAt, new ArrayList<>(tree.values()));
+        snapshot = refreshed;
+        save(refreshed);
+        logger.info("Index of " + remoteRoot + " refreshed : " + tree.size() + " entries in "
+                + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    /**
+     * This method is used to refresh the index in a background thread, every intervalMillis.
+     *
+     * @param connection - connection used only by the index.
+     * @param remoteRoot - root of the indexed tree.
+     * @param intervalMillis - time between the end of a refresh and the start of the next one.
+     */
+    public synchronized void startBackgroundRefresh(RemoteConnection connection, String remoteRoot, long intervalMillis) {
+        stopBackgroundRefresh();
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-file-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh(connection, remoteRoot);
+            } catch (FTPClientException | RuntimeException e) {
+                logger.error("Error while refreshing the index of " + remoteRoot + " : " + e.getMessage());
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopBackgroundRefresh() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * @return [long] - milliseconds since the start of the last refresh, Long.MAX_VALUE if the index was never built.
+     */
+    public long getAgeMillis() {
+        Snapshot current = snapshot;
+        return current == null ? Long.MAX_VALUE : System.currentTimeMillis() - current.refreshedAt;
+    }
+
+    /**
+     * @return [int] - number of files and directories in the index.
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.entries.size();
+    }
+
+    /**
+     * This method is used to find the files whose name contains a keyword, from the index only.
+     *
+     * @param remoteDir - directory to search in, with all its subdirectories.
+     * @param keyword - text contained in the name, case sensitive.
+     * @return [List] - matching files with their full remote path, empty if the index does not cover remoteDir.
+     */
+    public List<RemoteFileEntry> searchKeyword(String remoteDir, String keyword) {
+        Snapshot current = snapshot;
+        if (current == null || keyword.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] candidates = null;
+        String lowerKeyword = keyword.toLowerCase();
+        for (int i = 0; i + 3 <= lowerKeyword.length(); i++) {
+            int[] ids = current.trigrams.get(trigram(lowerKeyword, i));
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            candidates = candidates == null ? ids : intersect(candidates, ids);
+        }
+        return collect(current, remoteDir, candidates, name -> name.contains(keyword));
+    }
+
+    /**
+     * This method is used to find the files with an extension, from the index only.
+     *
+     * @param remoteDir - directory to search in, with all its subdirectories.
+     * @param extension - eg: txt or .txt
+     * @return [List] - matching files with their full remote path, empty if the index does not cover remoteDir.
+     */
+    public List<RemoteFileEntry> searchExtension(String remoteDir, String extension) {
+        Snapshot current = snapshot;
+        if (current == null || extension.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String ext = extension.startsWith(".") ? extension : "." + extension;
+        int[] ids = current.extensions.get(ext.toLowerCase());
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return collect(current, remoteDir, ids, name -> name.endsWith(ext));
+    }
+
+    /**
+     * This method is used to answer a search from the index when it is fresh enough and covers remoteDir,
+     * and with a live search of the server otherwise.
+     *
+     * @param connection - connection used for a live search.
+     * @param remoteDir - directory to search in, with all its subdirectories.
+     * @param keyword - text contained in the file name.
+     * @param maxAgeMillis - oldest index that is accepted, 0 to always search live.
+     * @return [List] - matching files with their full remote path.
+     * @throws FTPClientException
+     */
+    public List<RemoteFileEntry> search(RemoteConnection connection, String remoteDir, String keyword, long maxAgeMillis) throws FTPClientException {
+        Snapshot current = snapshot;
+        if (current != null && getAgeMillis() <= maxAgeMillis && covers(current, remoteDir)) {
+            return searchKeyword(remoteDir, keyword);
+        }
+        logger.info("Index is " + (current == null ? "empty" : getAgeMillis() + " ms old") + ", searching " + remoteDir + " live");
+        List<RemoteFileEntry> found = new ArrayList<>();
+        connection.searchTree(remoteDir, RemoteFileMatcher.keyword(keyword).filesOnly(), -1, 0, found::add);
+        return found;
+    }
+
+    private interface NameFilter {
+        boolean accept(String name);
+    }
+
+    private static List<RemoteFileEntry> collect(Snapshot current, String remoteDir, int[] candidates, NameFilter filter) {
+        if (!covers(current, remoteDir)) {
+            return Collections.emptyList();
+        }
+        String prefix = relativePrefix(current.remoteRoot, remoteDir);
+        List<RemoteFileEntry> found = new ArrayList<>();
+        int count = candidates == null ? current.entries.size() : candidates.length;
+        for (int i = 0; i < count; i++) {
+            RemoteFileEntry entry = current.entries.get(candidates == null ? i : candidates[i]);
+            if (entry.isDirectory() || !entry.getPath().startsWith(prefix) || !filter.accept(nameOf(entry.getPath()))) {
+                continue;
+            }
+            found.add(new RemoteFileEntry(DirectorySync.remotePath(current.remoteRoot, entry.getPath()),
+                    entry.getSize(), entry.getModifiedTime(), false));
+        }
+        return found;
+    }
+
+    private static boolean covers(Snapshot current, String remoteDir) {
+        return relativePrefix(current.remoteRoot, remoteDir) != null;
+    }
+
+    /**
+     * @return [String] - prefix of the relative paths under remoteDir, "" for the root, null if remoteDir is outside the root.
+     */
+    private static String relativePrefix(String remoteRoot, String remoteDir) {
+        String root = trimSlash(remoteRoot);
+        String dir = trimSlash(remoteDir);
+        if (dir.equals(root)) {
+            return "";
+        }
+        String rootPrefix = root.isEmpty() ? "/" : root + "/";
+        return dir.startsWith(rootPrefix) ? dir.substring(rootPrefix.length()) + "/" : null;
+    }
+
+    private static String trimSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    private static int[] intersect(int[] first, int[] second) {
+        int[] smaller = first.length <= second.length ? first : second;
+        int[] larger = smaller == first ? second : first;
+        int[] result = new int[smaller.length];
+        int count = 0;
+        for (int id : smaller) {
+            if (Arrays.binarySearch(larger, id) >= 0) {
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static <K> Map<K, int[]> toArrays(Map<K, List<Integer>> lists) {
+        Map<K, int[]> arrays = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<K, List<Integer>> list : lists.entrySet()) {
+            arrays.put(list.getKey(), list.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return arrays;
+    }
+
+    private void save(Snapshot saved) {
+        IndexFile stored = new IndexFile();
+        stored.remoteRoot = saved.remoteRoot;
+        stored.refreshedAt = saved.refreshedAt;
+        for (RemoteFileEntry entry : saved.entries) {
+            RemoteTreeManifest.CachedEntry cachedEntry = new RemoteTreeManifest.CachedEntry();
+            cachedEntry.name = entry.getPath();
+            cachedEntry.size = entry.getSize();
+            cachedEntry.modifiedTime = entry.getModifiedTime();
+            cachedEntry.directory = entry.isDirectory();
+            stored.entries.add(cachedEntry);
+        }
+        File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        try {
+            objectMapper.writeValue(tempFile, stored);
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Error while saving index : [" + e.getMessage() + "]");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ftp.core;
+
+import java.util.regex.Pattern;
+
+/**
+ * RemoteFileMatcher class - decides which entries a tree search reports.
+ *
+ * A glob is matched against the name of the entry, or against its path relative to the root of the search
+ * when the glob contains a '/'. "*" and "?" never cross a '/', "**" does, "[abc]", "[!abc]" and "{a,b}"
+ * are supported. A regular expression is matched anywhere in the name of the entry.
+ */
+public class RemoteFileMatcher {
+
+    private final Pattern pattern;
+    private final boolean matchPath;
+    private final boolean filesOnly;
+
+    private RemoteFileMatcher(Pattern pattern, boolean matchPath, boolean filesOnly) {
+        this.pattern = pattern;
+        this.matchPath = matchPath;
+        this.filesOnly = filesOnly;
+    }
+
+    /**
+     * @param glob - eg: *.log, app-202?-*.gz or logs/**&#47;error.log
+     * @return [RemoteFileMatcher] - matcher for files and directories.
+     */
+    public static RemoteFileMatcher glob(String glob) {
+        return new RemoteFileMatcher(Pattern.compile(globToRegex(glob)), glob.contains("/"), false);
+    }
+
+    /**
+     * @param regex - regular expression, found anywhere in the name.
+     * @return [RemoteFileMatcher] - matcher for files and directories.
+     */
+    public static RemoteFileMatcher regex(String regex) {
+        return new RemoteFileMatcher(Pattern.compile(regex), false, false);
+    }
+
+    /**
+     * @param keyword - text contained in the name.
+     * @return [RemoteFileMatcher] - matcher for files and directories.
+     */
+    public static RemoteFileMatcher keyword(String keyword) {
+        return new RemoteFileMatcher(Pattern.compile(Pattern.quote(keyword)), false, false);
+    }
+
+    /**
+     * @param extension - eg: txt or .txt
+     * @return [RemoteFileMatcher] - matcher for files only.
+     */
+    public static RemoteFileMatcher extension(String extension) {
+        String ext = extension.startsWith(".") ? extension : "." + extension;
+        return new RemoteFileMatcher(Pattern.compile(Pattern.quote(ext) + "$"), false, true);
+    }
+
+    /**
+     * @return [RemoteFileMatcher] - the same matcher, that never matches directories.
+     */
+    public RemoteFileMatcher filesOnly() {
+        return new RemoteFileMatcher(pattern, matchPath, true);
+    }
+
+    /**
+     * @param relativePath - path of the entry relative to the root of the search, with '/' separators.
+     * @param directory - true if the entry is a directory.
+     * @return [boolean] - true if the entry must be reported.
+     */
+    public boolean matches(String relativePath, boolean directory) {
+        if (directory && filesOnly) {
+            return false;
+        }
+        if (matchPath) {
+            return pattern.matcher(relativePath).matches();
+        }
+        String name = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return pattern.matcher(name).find();
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        // "**/" also matches no directory at all.
+                        boolean slash = i + 2 < glob.length() && glob.charAt(i + 2) == '/';
+                        regex.append(slash ? "(?:.*/)?" : ".*");
+                        i += slash ? 2 : 1;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, end);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.^$+()|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        return regex.append('$').toString();
+    }
+}
@@ -0,0 +1,98 @@
+package ftp.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RemoteMetadataCache class - remembers which remote paths are known to exist, so that bulk operations do not
+ * ask the server the same question for every file.
+ *
+ * Only positive results are kept: a path that was not found is asked again the next time, so files and
+ * directories created by any client are seen at once. Entries expire after a time to live, and the number of
+ * entries is bounded. Operations that remove or rename a path invalidate it together with everything below it.
+ */
+public class RemoteMetadataCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 30 * 1000;
+    public static final long DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final String DIRECTORY_KEY = "d:";
+    private static final String FILE_KEY = "f:";
+
+    private final Cache<String, Boolean> cache;
+
+    public RemoteMetadataCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param ttlMillis - time an entry is trusted for, 0 disables the cache.
+     * @param maxEntries - largest number of paths kept, the least recently used are dropped first.
+     */
+    public RemoteMetadataCache(long ttlMillis, long maxEntries) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param dirPath - remote directory path.
+     * @return [boolean] - true if the directory was found recently.
+     */
+    public boolean isKnownDirectory(String dirPath) {
+        return cache.getIfPresent(DIRECTORY_KEY + normalize(dirPath)) != null;
+    }
+
+    /**
+     * @param filePath - remote path.
+     * @return [boolean] - true if checkFileExists found the path recently.
+     */
+    public boolean isKnownFile(String filePath) {
+        return cache.getIfPresent(FILE_KEY + normalize(filePath)) != null;
+    }
+
+    public void rememberDirectory(String dirPath) {
+        cache.put(DIRECTORY_KEY + normalize(dirPath), Boolean.TRUE);
+    }
+
+    public void rememberFile(String filePath) {
+        cache.put(FILE_KEY + normalize(filePath), Boolean.TRUE);
+    }
+
+    /**
+     * This method is used to forget a path that was removed or renamed, and every path below it.
+     *
+     * @param remotePath - remote file or directory path.
+     */
+    public void invalidate(String remotePath) {
+        String path = normalize(remotePath);
+        String children = path.endsWith("/") ? path : path + "/";
+        cache.asMap().keySet().removeIf(key -> {
+            String keyPath = key.substring(2);
+            return keyPath.equals(path) || keyPath.startsWith(children);
+        });
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return [long] - number of existence checks answered without asking the server.
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    private static String normalize(String remotePath) {
+        String path = remotePath;
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,252 @@
+package ftp.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * RemoteTreeManifest class - a local copy of the listings of a remote tree, that is kept on disk between runs.
+ *
+ * Every directory is stored with its modification time, the time it was listed, an ETag (a hash of its
+ * listing) and its entries. When the tree is needed again, every known directory is checked with one stat
+ * round trip, and only the directories whose modification time changed are listed again.
+ *
+ * The modification time of a directory changes when entries are added, removed or renamed in it, but not
+ * when a file inside it is rewritten in place. Use refresh() when in place changes must be seen.
+ */
+public class RemoteTreeManifest {
+
+    private static final Logger logger = LogManager.getLogger(RemoteTreeManifest.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // A directory changed this close to its listing may have changed again within the same second.
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    /**
+     * DirectoryLister interface - the remote operations the manifest needs.
+     */
+    interface DirectoryLister {
+        /**
+         * @return [long] - modification time of the directory, or RemoteFileEntry.UNKNOWN_TIME.
+         */
+        long getModifiedTime(String remoteDir) throws IOException;
+
+        /**
+         * @return [List] - entries of the directory, with their name as path, or null if it does not exist.
+         */
+        List<RemoteFileEntry> list(String remoteDir) throws IOException;
+    }
+
+    /**
+     * CachedDirectory class - the stored listing of one directory.
+     */
+    public static class CachedDirectory {
+        public long modifiedTime;
+        public long listedAt;
+        public String etag;
+        public List<CachedEntry> entries = new ArrayList<>();
+    }
+
+    /**
+     * CachedEntry class - one stored entry of a directory.
+     */
+    public static class CachedEntry {
+        public String name;
+        public long size;
+        public long modifiedTime;
+        public boolean directory;
+    }
+
+    private final File manifestFile;
+    private Map<String, CachedDirectory> directories = new HashMap<>();
+
+    /**
+     * @param manifestFile - file the manifest is kept in, it is loaded if it exists. null keeps it in memory only.
+     */
+    public RemoteTreeManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+        if (manifestFile != null && manifestFile.isFile()) {
+            try {
+                directories = objectMapper.readValue(manifestFile, new TypeReference<HashMap<String, CachedDirectory>>() {
+                });
+            } catch (IOException e) {
+                logger.error("Ignoring unreadable manifest [" + manifestFile + "] : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method is used to get the whole tree under a remote directory, listing only the directories that
+     * changed since they were stored. The manifest is saved afterwards.
+     *
+     * @param remoteRoot - root of the tree.
+     * @param lister - remote operations of the connection.
+     * @return [Map] - entries sorted by path relative to remoteRoot, empty if remoteRoot does not exist.
+     * @throws IOException
+     */
+    synchronized Map<String, RemoteFileEntry> getTree(String remoteRoot, DirectoryLister lister) throws IOException {
+        Map<String, RemoteFileEntry> tree = new TreeMap<>();
+        Set<String> visited = new HashSet<>();
+        // Every pending directory comes with its modification time, when it is known from a fresh listing of its parent.
+        Deque<Object[]> pending = new ArrayDeque<>();
+        pending.add(new Object[]{"", null});
+        int listed = 0;
+        while (!pending.isEmpty()) {
+            Object[] next = pending.poll();
+            String relativeDir = (String) next[0];
+            String remoteDir = relativeDir.isEmpty() ? remoteRoot : DirectorySync.remotePath(remoteRoot, relativeDir);
+            visited.add(remoteDir);
+            CachedDirectory cached = directories.get(remoteDir);
+            long modifiedTime = next[1] != null ? (Long) next[1] : lister.getModifiedTime(remoteDir);
+            boolean relisted = isStale(cached, modifiedTime);
+            if (relisted) {
+                List<RemoteFileEntry> entries = lister.list(remoteDir);
+                listed++;
+                if (entries == null) {
+                    directories.remove(remoteDir);
+                    if (relativeDir.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                cached = toCachedDirectory(modifiedTime, entries);
+                directories.put(remoteDir, cached);
+            }
+            for (CachedEntry entry : cached.entries) {
+                String relativePath = relativeDir.isEmpty() ? entry.name : relativeDir + "/" + entry.name;
+                tree.put(relativePath, new RemoteFileEntry(relativePath, entry.size, entry.modifiedTime, entry.directory));
+                if (entry.directory) {
+                    boolean knownTime = relisted && entry.modifiedTime != RemoteFileEntry.UNKNOWN_TIME;
+                    pending.add(new Object[]{relativePath, knownTime ? entry.modifiedTime : null});
+                }
+            }
+        }
+        removeUnvisited(remoteRoot, visited);
+        logger.info("Remote tree of " + remoteRoot + " : " + visited.size() + " directories, " + listed + " listed again");
+        save();
+        return tree;
+    }
+
+    /**
+     * This method is used to forget the stored listing of a directory, after it was changed by this client.
+     *
+     * @param remoteDir - remote directory.
+     */
+    public synchronized void invalidate(String remoteDir) {
+        directories.remove(remoteDir);
+    }
+
+    /**
+     * This method is used to forget the stored listing of the directory that holds a path.
+     *
+     * @param remotePath - remote file or directory that was created, changed or deleted.
+     */
+    public void invalidateParentOf(String remotePath) {
+        String path = remotePath.endsWith("/") ? remotePath.substring(0, remotePath.length() - 1) : remotePath;
+        int slash = path.lastIndexOf('/');
+        invalidate(slash > 0 ? path.substring(0, slash) : slash == 0 ? "/" : ".");
+    }
+
+    /**
+     * This method is used to forget every stored listing, so the next tree is listed completely.
+     */
+    public synchronized void refresh() {
+        directories.clear();
+    }
+
+    /**
+     * @param remoteDir - remote directory.
+     * @return [String] - ETag of the stored listing of the directory, or null if it is not stored.
+     */
+    public synchronized String getEtag(String remoteDir) {
+        CachedDirectory cached = directories.get(remoteDir);
+        return cached == null ? null : cached.etag;
+    }
+
+    /**
+     * This method is used to write the manifest to disk, through a temporary file.
+     */
+    public synchronized void save() {
+        if (manifestFile == null) {
+            return;
+        }
+        File tempFile = new File(manifestFile.getAbsolutePath() + ".tmp");
+        try {
+            File parentDir = manifestFile.getAbsoluteFile().getParentFile();
+            if (!parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+            objectMapper.writeValue(tempFile, directories);
+            Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Error while saving manifest : [" + e.getMessage() + "]");
+        }
+    }
+
+    private static boolean isStale(CachedDirectory cached, long modifiedTime) {
+        return cached == null
+                || modifiedTime == RemoteFileEntry.UNKNOWN_TIME
+                || modifiedTime != cached.modifiedTime
+                || cached.modifiedTime >= cached.listedAt - RACY_WINDOW_MILLIS;
+    }
+
+    private static CachedDirectory toCachedDirectory(long modifiedTime, List<RemoteFileEntry> entries) {
+        CachedDirectory cached = new CachedDirectory();
+        cached.modifiedTime = modifiedTime;
+        cached.listedAt = System.currentTimeMillis();
+        MessageDigest digest = sha1();
+        for (RemoteFileEntry entry : entries) {
+            CachedEntry cachedEntry = new CachedEntry();
+            cachedEntry.name = entry.getPath();
+            cachedEntry.size = entry.getSize();
+            cachedEntry.modifiedTime = entry.getModifiedTime();
+            cachedEntry.directory = entry.isDirectory();
+            cached.entries.add(cachedEntry);
+            digest.update((entry.getPath() + "/" + entry.getSize() + "/" + entry.getModifiedTime() + "/" + entry.isDirectory() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder etag = new StringBuilder();
+        for (byte value : digest.digest()) {
+            etag.append(String.format("%02x", value));
+        }
+        cached.etag = etag.toString();
+        return cached;
+    }
+
+    private void removeUnvisited(String remoteRoot, Set<String> visited) {
+        String prefix = remoteRoot.endsWith("/") ? remoteRoot : remoteRoot + "/";
+        Iterator<String> iterator = directories.keySet().iterator();
+        while (iterator.hasNext()) {
+            String remoteDir = iterator.next();
+            if ((remoteDir.equals(remoteRoot) || remoteDir.startsWith(prefix)) && !visited.contains(remoteDir)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,20 +3,40 @@ package ftp.core;
 import com.jcraft.jsch.*;
 
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import static ftp.core.FTPUtils.getFileNameFromRemote;
 
@@ -27,8 +47,37 @@ public class SFTPConnection implements RemoteConnection {
     private static Logger logger = LogManager.getLogger(SFTPConnection.class);
 
     static JSch jsch = new JSch();
-    private static ChannelSftp sftpChannel;
-    private static Session session = null;
+    private ChannelSftp sftpChannel;
+    private Session session = null;
+    // Settings used by connect, null to use the profile configured for the host.
+    private TransferProfile transferProfile = null;
+    // Opt in zlib compression of the SSH session, it must be chosen before connect.
+    private boolean compressionEnabled = false;
+    // Remote paths known to exist.
+    private RemoteMetadataCache metadataCache = new RemoteMetadataCache();
+    // Listings of remote trees kept between runs, null to list the trees completely every time.
+    private RemoteTreeManifest remoteTreeManifest = null;
+    // Unknown until the first copyDirectory, then true if `cp` can be run on the server.
+    private Boolean serverSideCopySupported = null;
+
+    // Buffer used to copy a remote file into a local stream, one SFTP read reply is at most 32 KB.
+    private static final int SFTP_COPY_BUFFER_SIZE = 32 * 1024;
+    // Only this many bytes of the error output of a remote command are kept for the log.
+    private static final int ERROR_OUTPUT_LIMIT = 8 * 1024;
+
+    // Ranges of a segmented upload are never made smaller than this, to keep the per channel overhead low.
+    private static final long SEGMENT_UPLOAD_MIN_SIZE = 8L * 1024 * 1024;
+    private static final int SEGMENT_UPLOAD_BUFFER_SIZE = 256 * 1024;
+    // Number of files copied at once by copyDirectory.
+    private static final int COPY_PARALLELISM = 4;
+    // Number of sftp channels that list directories at once in searchTree.
+    private static final int SEARCH_PARALLELISM = 4;
+    // Number of sftp channels that delete files at once in deleteDirectory.
+    private static final int DELETE_PARALLELISM = 4;
+    // Number of sftp channels that rename at once in renameRemoteFiles.
+    private static final int RENAME_PARALLELISM = 4;
+    // Size of the data in one SFTP read or write request, the largest size every server accepts.
+    static final int SFTP_REQUEST_SIZE = 32 * 1024;
 
     /**
      * This method is used to make connection with the SFTP remote server.
@@ -40,16 +89,41 @@ public class SFTPConnection implements RemoteConnection {
      * @throws FTPClientException
      */
     public int connect(String hostName, String userName, String password) throws FTPClientException {
+        return connect(hostName, TransferProfile.portForHost("SFTP", hostName, 22), userName, password);
+    }
+
+    /**
+     * This method is used to make connection with an SFTP remote server that listens on a specific port.
+     *
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @param port - SSH port of the server.
+     * @param userName - client name
+     * @param password - client password
+     * @return [int] - return 1 for success
+     * @throws FTPClientException
+     */
+    public int connect(String hostName, int port, String userName, String password) throws FTPClientException {
         try {
-            session = jsch.getSession(userName, hostName, 22);
+            if (transferProfile == null) {
+                transferProfile = TransferProfile.forHost(hostName);
+            }
+            session = jsch.getSession(userName, hostName, port);
             java.util.Properties config = new java.util.Properties();
             config.put("StrictHostKeyChecking", "no");
+            if (compressionEnabled && !CountingZlibCompression.isAvailable()) {
+                logger.error("zlib compression is not available (jzlib is missing), connecting without compression");
+            } else if (compressionEnabled) {
+                config.put("compression.s2c", "zlib@openssh.com,zlib,none");
+                config.put("compression.c2s", "zlib@openssh.com,zlib,none");
+                config.put("zlib@openssh.com", CountingZlibCompression.class.getName());
+                config.put("zlib", CountingZlibCompression.class.getName());
+            }
             session.setConfig(config);
             session.setPassword(password);
+            session.setSocketFactory(new TunedSocketFactory(transferProfile));
             session.connect();
-            logger.info("Successfully Connected , creating a channel");
-            sftpChannel = (ChannelSftp) session.openChannel("sftp");
-            sftpChannel.connect();
+            logger.info("Successfully Connected with transfer profile [" + transferProfile + "], creating a channel");
+            sftpChannel = openSftpChannel();
             return 1;
         } catch (JSchException e) {
             throw new FTPClientException(e);
@@ -65,6 +139,55 @@ public class SFTPConnection implements RemoteConnection {
         logger.info("Disconnecting from the remote server");
     }
 
+    /**
+     * This method is used to choose the socket and SSH window settings of the next connect.
+     *
+     * @param transferProfile - settings to use, null to use the profile configured for the host.
+     */
+    @Override
+    public void setTransferProfile(TransferProfile transferProfile) {
+        this.transferProfile = transferProfile;
+    }
+
+    /**
+     * This method is used to turn zlib compression of the SSH session on or off, for the next connect.
+     * SSH compresses the whole session, so already compressed files are compressed again as well:
+     * enable it for connections that mostly move text, like CSV and log exports.
+     *
+     * @param compressionEnabled - true to offer zlib to the server.
+     */
+    @Override
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * @return [CompressionStats] - bytes before and after compression, for all compressed SSH sessions of the JVM.
+     */
+    @Override
+    public CompressionStats getCompressionStats() {
+        return CountingZlibCompression.SSH_STATS;
+    }
+
+    /**
+     * This method is used to check if the session is still usable, with one stat round trip.
+     *
+     * @return [boolean] - true if the connection is alive.
+     */
+    @Override
+    public boolean isConnected() {
+        if (session == null || !session.isConnected() || sftpChannel == null || !sftpChannel.isConnected()) {
+            return false;
+        }
+        try {
+            sftpChannel.stat(".");
+            return true;
+        } catch (SftpException e) {
+            logger.debug("Connection check failed : " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * This method is used to get current remote directory location
      *
@@ -87,15 +210,11 @@ public class SFTPConnection implements RemoteConnection {
     @Override
     public void listCurrentDirectory() throws FTPClientException {
         try {
-            Vector fileList = sftpChannel.ls(sftpChannel.pwd());
-            for (int i = 0; i < fileList.size(); i++) {
-                ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) fileList.get(i);
-                String fileName = entry.getFilename();
-                if(!".".equals(fileName) && !"..".equals(fileName)) {
-                    System.out.println(entry.getFilename());
-                }
-            }
-        } catch (SftpException e) {
+            streamEntries(sftpChannel, sftpChannel.pwd(), entry -> {
+                System.out.println(entry.getPath());
+                return true;
+            });
+        } catch (SftpException | IOException e) {
             throw new FTPClientException(e);
         }
     }
@@ -110,6 +229,7 @@ public class SFTPConnection implements RemoteConnection {
         try {
             if (!isDirectory(filePath)) {
                 System.out.println("Going to delete file :[" + filePath + "]");
+                metadataCache.invalidate(filePath);
                 sftpChannel.rm(filePath);
                 return true;
             } else {
@@ -124,34 +244,93 @@ public class SFTPConnection implements RemoteConnection {
 
     /**
      * This method is used to delete an entire directory (including files present in it),
-     * on the SFTP remote server.
+     * on the SFTP remote server. A small tree is deleted with the channel of this connection only, a larger
+     * one with DELETE_PARALLELISM extra sftp channels, or with this channel if no extra channel can be opened.
      *
      * @param remoteDir - remote directory path
      * @return [boolean] - true if success else return false
      */
     @Override
     public boolean deleteDirectory(String remoteDir) {
+        boolean smallTree;
         try {
-            if (isDirectory(remoteDir)) {
-                Vector<ChannelSftp.LsEntry> dirList = sftpChannel.ls(remoteDir);
-                for (ChannelSftp.LsEntry entry : dirList) {
-                    if (!(".".equals(entry.getFilename()) || "..".equals(entry.getFilename()))) {
-                        remoteDir = remoteDir.endsWith("/") ? remoteDir : remoteDir + "/";
-                        if (entry.getAttrs().isDir()) {
-                            deleteDirectory(remoteDir + entry.getFilename() + "/");
-                        } else {
-                            sftpChannel.rm(remoteDir + entry.getFilename());
-                        }
-                    }
-                }
-                sftpChannel.cd("..");
-                sftpChannel.rmdir(remoteDir);
+            if (!isDirectory(remoteDir)) {
+                return true;
             }
-        } catch (SftpException e) {
+            smallTree = ParallelTreeDelete.isSmallTree(remoteDir, treeRemover(sftpChannel, false), ParallelTreeDelete.SMALL_TREE_ENTRIES);
+        } catch (SftpException | IOException e) {
             logger.error("Error while deleting the directory :[" + e.getMessage() + "]");
             return false;
         }
-        return true;
+        TransferSummary summary = deleteDirectoryParallel(remoteDir, smallTree ? 0 : DELETE_PARALLELISM);
+        if (!summary.isSuccessful()) {
+            summary.printSummary();
+        }
+        return summary.isSuccessful();
+    }
+
+    /**
+     * This method is used to delete an entire directory, with several sftp channels at once. The tree is listed
+     * only once, the files are deleted while it is being listed, then the directories are removed bottom-up.
+     * A file that cannot be deleted is recorded in the summary, and the job goes on with the others.
+     * If no extra channel can be opened, the tree is deleted with the channel of this connection.
+     *
+     * @param remoteDir - remote directory path
+     * @param channels - number of extra sftp channels that list and delete at once, 0 to use only this one.
+     * @return [TransferSummary] - deleted files and the paths that could not be deleted.
+     */
+    @Override
+    public TransferSummary deleteDirectoryParallel(String remoteDir, int channels) {
+        metadataCache.invalidate(remoteDir);
+        invalidateManifest(remoteDir);
+        return ParallelTreeDelete.delete(remoteDir, channels, () -> {
+            try {
+                return treeRemover(openSftpChannel(), true);
+            } catch (JSchException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }, treeRemover(sftpChannel, false));
+    }
+
+    /**
+     * @param channel - sftp channel the operations are run on.
+     * @param disconnectOnClose - true for an extra channel, that is closed with its worker.
+     * @return [TreeRemover] - the operations of ParallelTreeDelete, over the channel.
+     */
+    private static ParallelTreeDelete.TreeRemover treeRemover(ChannelSftp channel, boolean disconnectOnClose) {
+        return new ParallelTreeDelete.TreeRemover() {
+            @Override
+            public boolean read(String dir, RemoteEntryVisitor visitor) throws IOException {
+                return streamEntries(channel, dir, visitor);
+            }
+
+            @Override
+            public boolean deleteFile(String remotePath) throws IOException {
+                try {
+                    channel.rm(remotePath);
+                    return true;
+                } catch (SftpException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public boolean removeDirectory(String dir) throws IOException {
+                try {
+                    channel.rmdir(dir);
+                    return true;
+                } catch (SftpException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (disconnectOnClose) {
+                    channel.disconnect();
+                }
+            }
+        };
     }
 
     /**
@@ -170,20 +349,22 @@ public class SFTPConnection implements RemoteConnection {
      *
      * @param localFilePath - this is the path on local system
      * @param remotePath    - this is the path on remote server.
+     * @return [boolean] - true if the file was uploaded.
      * @throws IOException        - can throw IOException, while handling files.
      * @throws FTPClientException - throws this exception while checking if file exist or not opn remote server.
      */
     @Override
-    public void uploadSingleFile(String localFilePath, String remotePath) throws IOException, FTPClientException {
+    public boolean uploadSingleFile(String localFilePath, String remotePath) throws IOException, FTPClientException {
         String remoteFilePath;
         File localFile = new File(localFilePath);
         if (localFile.isFile()) {
             remoteFilePath = remotePath + "/" + localFile.getName();
             if (checkRemoteDirectoryExists(remotePath)) {
-                try (InputStream inputStream = new FileInputStream(localFile)) {
+                try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
                     sftpChannel.put(inputStream, remoteFilePath);
                     logger.info("file upload successful");
                     System.out.println("UPLOADED a file to: " + remoteFilePath);
+                    return true;
                 } catch (SftpException e) {
                     logger.info("file upload Unsuccessful");
                     System.out.println("Error occurred when trying to upload the file: \""
@@ -198,6 +379,122 @@ public class SFTPConnection implements RemoteConnection {
             logger.info("Error occurred - The local path provided is not valid.");
             System.out.println("Error: The local path provided is not valid.\n");
         }
+        return false;
+    }
+
+    /**
+     * This method is used to upload one large file as several byte ranges at once. The file is split into
+     * one contiguous range per sftp channel, every channel writes its range at its own offset into a
+     * temporary ".part" file, and the temporary file is renamed to its final name once all ranges are written.
+     *
+     * @param localFilePath - this is the path on local system
+     * @param remotePath - this is the remote directory the file is uploaded to.
+     * @param channels - number of sftp channels (and ranges) used to upload the file.
+     * @return [TransferSummary] - one success per range, and the ranges that failed.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    public TransferSummary uploadSingleFileSegmented(String localFilePath, String remotePath, int channels) throws IOException, FTPClientException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            throw new FTPClientException("The local path provided is not valid : " + localFilePath);
+        }
+        if (!checkRemoteDirectoryExists(remotePath)) {
+            throw new FTPClientException("The Remote file path provided does not exist : " + remotePath);
+        }
+        String remoteFilePath = (remotePath.endsWith("/") ? remotePath : remotePath + "/") + localFile.getName();
+        String tempFilePath = remoteFilePath + ".part";
+        long fileSize = localFile.length();
+        int workerCount = (int) Math.max(1, Math.min(channels, fileSize / SEGMENT_UPLOAD_MIN_SIZE + 1));
+        long rangeSize = (fileSize + workerCount - 1) / workerCount;
+
+        TransferSummary summary = new TransferSummary();
+        // Opening the remote file truncates it, so every range is opened before any range is written.
+        CountDownLatch opened = new CountDownLatch(workerCount);
+        try (FileChannel fileChannel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                long offset = i * rangeSize;
+                long length = Math.max(0, Math.min(rangeSize, fileSize - offset));
+                executor.submit(() -> uploadRange(fileChannel, tempFilePath, offset, length, opened, summary));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+
+        try {
+            if (!summary.isSuccessful() || sftpChannel.stat(tempFilePath).getSize() != fileSize) {
+                summary.recordFailure(localFilePath, "Not all ranges were written, leaving " + tempFilePath + " in place");
+            } else {
+                // Without the posix-rename extension, SFTP rename fails when the target already exists.
+                if (sftpChannel.getExtension("posix-rename@openssh.com") == null && checkFileExists(remoteFilePath)) {
+                    sftpChannel.rm(remoteFilePath);
+                }
+                sftpChannel.rename(tempFilePath, remoteFilePath);
+                logger.info("file upload successful");
+            }
+        } catch (SftpException e) {
+            summary.recordFailure(localFilePath, e.getMessage());
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is run by every range worker of a segmented upload. It opens its own sftp channel,
+     * waits until all the other ranges are open, then copies its range with positional reads.
+     *
+     * @param fileChannel - local file being uploaded.
+     * @param tempFilePath - remote temporary file.
+     * @param offset - start of the range.
+     * @param length - number of bytes in the range.
+     * @param opened - counted down once the remote file is open.
+     * @param summary - collects the result of the range.
+     */
+    private void uploadRange(FileChannel fileChannel, String tempFilePath, long offset, long length, CountDownLatch opened, TransferSummary summary) {
+        ChannelSftp channel = null;
+        OutputStream outputStream = null;
+        try {
+            channel = openSftpChannel();
+            outputStream = channel.put(tempFilePath, null, ChannelSftp.OVERWRITE, offset);
+        } catch (JSchException | SftpException e) {
+            summary.recordFailure(tempFilePath + "@" + offset, e.getMessage());
+        } finally {
+            opened.countDown();
+        }
+        if (outputStream == null) {
+            if (channel != null) {
+                channel.disconnect();
+            }
+            return;
+        }
+        try {
+            opened.await();
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_UPLOAD_BUFFER_SIZE);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = fileChannel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Local file ended before the end of range at " + offset);
+                }
+                outputStream.write(buffer.array(), 0, read);
+                position += read;
+            }
+            outputStream.close();
+            summary.recordSuccess(length);
+        } catch (IOException e) {
+            summary.recordFailure(tempFilePath + "@" + offset, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.disconnect();
+        }
     }
 
     /**
@@ -219,6 +516,168 @@ public class SFTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to put a single file on the remote server, resuming a previous partial upload.
+     * If the journal has an entry for the file, the upload uses ChannelSftp.RESUME, which continues from
+     * the size of the remote file, otherwise the file is sent from the beginning.
+     *
+     * @param localFilePath - this is the path on local system
+     * @param remotePath - this is the path on remote server.
+     * @param journal - journal that records the committed bytes.
+     * @return [boolean] - true if the file is completely on the remote server.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean uploadSingleFileResumable(String localFilePath, String remotePath, TransferJournal journal) throws IOException, FTPClientException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            logger.info("Error occurred - The local path provided is not valid.");
+            return false;
+        }
+        String remoteFilePath = remotePath + "/" + localFile.getName();
+        String key = TransferJournal.uploadKey(localFile.getAbsolutePath(), remoteFilePath);
+        long totalBytes = localFile.length();
+        if (journal.isComplete(key, totalBytes)) {
+            logger.info("Skipping [" + localFilePath + "], already uploaded");
+            return true;
+        }
+        int mode = ChannelSftp.OVERWRITE;
+        long offset = 0;
+        if (journal.hasEntry(key)) {
+            try {
+                offset = sftpChannel.stat(remoteFilePath).getSize();
+                mode = offset <= totalBytes ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE;
+            } catch (SftpException e) {
+                logger.debug(remoteFilePath + " not found, uploading from the beginning");
+            }
+        }
+        if (mode == ChannelSftp.RESUME) {
+            logger.info("Resuming upload of [" + localFilePath + "] at byte " + offset);
+        } else {
+            offset = 0;
+        }
+        try {
+            sftpChannel.put(localFile.getAbsolutePath(), remoteFilePath, new JournalProgressMonitor(journal, key, offset, totalBytes), mode);
+            journal.markComplete(key, totalBytes);
+            return true;
+        } catch (SftpException e) {
+            logger.error("Error while uploading [" + localFilePath + "] : " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * This method is used to upload multiple files onto remote SFTP server, resuming the partial ones.
+     * A failed file does not stop the batch, the next run picks it up from the journal.
+     *
+     * @param localPaths [Array] - these are the paths of all the files on local system, that user wants to upload
+     * @param remotePath - this is the path on remote server, where user want to upload all those files.
+     * @param journal - journal that records the committed bytes.
+     */
+    @Override
+    public void uploadMultipleFilesResumable(String[] localPaths, String remotePath, TransferJournal journal) {
+        int failed = 0;
+        for (String localPath : localPaths) {
+            try {
+                if (!uploadSingleFileResumable(localPath, remotePath, journal)) {
+                    failed++;
+                }
+            } catch (IOException | FTPClientException e) {
+                logger.error("Error while uploading [" + localPath + "] : " + e.getMessage());
+                failed++;
+            }
+        }
+        if (failed == 0) {
+            logger.info("All files uploaded successfully");
+        } else {
+            logger.error(failed + " file(s) could not be uploaded, run the upload again to resume them");
+        }
+    }
+
+    /**
+     * This method is used to download a single file from a remote SFTP server, resuming a previous partial
+     * download. If the journal has an entry for the file, the download uses ChannelSftp.RESUME, which
+     * continues from the size of the local file, otherwise the file is fetched from the beginning.
+     *
+     * @param localPath - local directory where you want to download the file to.
+     * @param remoteFilePath - remote path from where you want to download the file from.
+     * @param journal - journal that records the committed bytes.
+     * @return [boolean] - true if the file is completely on the local machine.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean downloadSingleFileResumable(String localPath, String remoteFilePath, TransferJournal journal) throws IOException, FTPClientException {
+        long totalBytes;
+        try {
+            totalBytes = sftpChannel.stat(remoteFilePath).getSize();
+        } catch (SftpException e) {
+            logger.error("Error Downloading file : [" + remoteFilePath + "] does not exist on remote location");
+            return false;
+        }
+        if (!checkLocalDirectoryExists(localPath)) {
+            new File(localPath).mkdirs();
+        }
+        File downloadFile = new File(localPath, getFileNameFromRemote(remoteFilePath));
+        String key = TransferJournal.downloadKey(remoteFilePath, downloadFile.getAbsolutePath());
+        if (journal.isComplete(key, totalBytes) && downloadFile.length() == totalBytes) {
+            logger.info("Skipping [" + remoteFilePath + "], already downloaded");
+            return true;
+        }
+        boolean resume = journal.hasEntry(key) && downloadFile.exists() && downloadFile.length() <= totalBytes;
+        long offset = resume ? downloadFile.length() : 0;
+        if (resume) {
+            logger.info("Resuming download of [" + remoteFilePath + "] at byte " + offset);
+        }
+        try {
+            sftpChannel.get(remoteFilePath, downloadFile.getAbsolutePath(), new JournalProgressMonitor(journal, key, offset, totalBytes),
+                    resume ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE);
+            journal.markComplete(key, totalBytes);
+            return true;
+        } catch (SftpException e) {
+            logger.error("Error Downloading file : [" + remoteFilePath + "] from remote location");
+            return false;
+        }
+    }
+
+    /**
+     * JournalProgressMonitor class - records the progress reported by JSch in a transfer journal.
+     * On RESUME, JSch itself reports the bytes that are already at the destination with a first count(),
+     * so the counter starts at 0 and the offset is only written to the journal when the transfer starts.
+     */
+    private static class JournalProgressMonitor implements SftpProgressMonitor {
+
+        private final TransferJournal journal;
+        private final String key;
+        private final long offset;
+        private final long totalBytes;
+        private long committedBytes = 0;
+
+        JournalProgressMonitor(TransferJournal journal, String key, long offset, long totalBytes) {
+            this.journal = journal;
+            this.key = key;
+            this.offset = offset;
+            this.totalBytes = totalBytes;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+            journal.recordProgress(key, offset, totalBytes);
+        }
+
+        @Override
+        public boolean count(long count) {
+            committedBytes = Math.min(totalBytes, committedBytes + count);
+            journal.recordProgress(key, committedBytes, totalBytes);
+            return true;
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
     /**
      * This method is used to create new Directory on remote SFTP server.
      *
@@ -231,6 +690,7 @@ public class SFTPConnection implements RemoteConnection {
         try {
             if (!checkRemoteDirectoryExists(dirName)) {
                 sftpChannel.mkdir(dirName);
+                metadataCache.rememberDirectory(dirName);
             }
             return true;
         } catch (SftpException e) {
@@ -247,15 +707,42 @@ public class SFTPConnection implements RemoteConnection {
      */
     @Override
     public boolean checkFileExists(String filePath) throws FTPClientException {
+        if (metadataCache.isKnownFile(filePath)) {
+            return true;
+        }
         try {
             Vector files = sftpChannel.ls(filePath);
-            return files.size() == 1;
+            if (files.size() == 1) {
+                metadataCache.rememberFile(filePath);
+                return true;
+            }
+            return false;
         } catch (SftpException e) {
             logger.error(filePath + " not found");
             return false;
         }
     }
 
+    /**
+     * This method is used to get the size, modification time and type of a remote path, with one SFTP stat.
+     *
+     * @param remotePath - remote file or directory.
+     * @return [RemoteFileEntry] - entry with the full path, or null if the path does not exist.
+     * @throws FTPClientException - if the path could not be checked, eg: permission denied.
+     */
+    @Override
+    public RemoteFileEntry statRemoteFile(String remotePath) throws FTPClientException {
+        try {
+            SftpATTRS attrs = sftpChannel.stat(remotePath);
+            return new RemoteFileEntry(remotePath, attrs.isDir() ? 0 : attrs.getSize(), attrs.getMTime() * 1000L, attrs.isDir());
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw new FTPClientException(e);
+        }
+    }
+
     /**
      * This method is used to if the given directory exists or not on the local machine.
      *
@@ -278,13 +765,20 @@ public class SFTPConnection implements RemoteConnection {
      */
     @Override
     public boolean checkRemoteDirectoryExists(String dirPath) throws FTPClientException {
+        if (metadataCache.isKnownDirectory(dirPath)) {
+            return true;
+        }
         SftpATTRS attrs = null;
         try {
             attrs = sftpChannel.stat(dirPath);
         } catch (SftpException e) {
             return false;
         }
-        return attrs != null && attrs.isDir();
+        if (attrs != null && attrs.isDir()) {
+            metadataCache.rememberDirectory(dirPath);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -299,6 +793,8 @@ public class SFTPConnection implements RemoteConnection {
     public boolean renameRemoteFile(String oldName, String newName) throws FTPClientException {
         try {
             if (checkFileExists(oldName)) {
+                metadataCache.invalidate(oldName);
+                metadataCache.invalidate(newName);
                 sftpChannel.rename(oldName, newName);
                 return true;
             }
@@ -312,8 +808,80 @@ public class SFTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to rename or move many files at once, with RENAME_PARALLELISM sftp channels.
+     * The sources are checked against one listing of their directory, instead of one check per file.
+     * Small batches, or batches for which no extra channel can be opened, are renamed with this channel.
+     *
+     * @param renames - full source path to full target path.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    @Override
+    public TransferSummary renameRemoteFiles(Map<String, String> renames) {
+        return BatchRename.rename(renames, (dir, visitor) -> streamEntries(sftpChannel, dir, visitor), RENAME_PARALLELISM,
+                this::openRenamer, renamer(sftpChannel, false), this::forgetDirectory);
+    }
+
+    /**
+     * This method is used to rename every entry of a directory whose name matches a regular expression,
+     * with RENAME_PARALLELISM sftp channels. eg: ("/logs", "^(.*)\\.log$", "archive/$1.log")
+     *
+     * @param remoteDir - directory that holds the entries.
+     * @param regex - found anywhere in the name.
+     * @param replacement - new name, relative to remoteDir, with $1 for the groups.
+     * @return [TransferSummary] - renamed paths and the paths that could not be renamed.
+     */
+    @Override
+    public TransferSummary renameRemoteFiles(String remoteDir, String regex, String replacement) {
+        return BatchRename.substitute(remoteDir, regex, replacement, (dir, visitor) -> streamEntries(sftpChannel, dir, visitor),
+                RENAME_PARALLELISM, this::openRenamer, renamer(sftpChannel, false), this::forgetDirectory);
+    }
+
+    private BatchRename.Renamer openRenamer() throws IOException {
+        try {
+            return renamer(openSftpChannel(), true);
+        } catch (JSchException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param channel - sftp channel the renames are run on.
+     * @param disconnectOnClose - true for an extra channel, that is closed with its worker.
+     * @return [Renamer] - renames over the channel, for BatchRename.
+     */
+    private static BatchRename.Renamer renamer(ChannelSftp channel, boolean disconnectOnClose) {
+        return new BatchRename.Renamer() {
+            @Override
+            public boolean rename(String from, String to) throws IOException {
+                try {
+                    channel.rename(from, to);
+                    return true;
+                } catch (SftpException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (disconnectOnClose) {
+                    channel.disconnect();
+                }
+            }
+        };
+    }
+
+    private void forgetDirectory(String remoteDir) {
+        metadataCache.invalidate(remoteDir);
+        if (remoteTreeManifest != null) {
+            remoteTreeManifest.invalidate(remoteDir);
+        }
+    }
+
     /**
      * This method is used to create a copy of a directory on remote server.
+     * If the server lets us run `cp` over an exec channel, the copy is done entirely on the server.
+     * Otherwise the files are streamed from one sftp channel to another, nothing is written to the local disk.
      *
      * @param sourceDir - the name of the directory you want to copy.
      * @param desDir - the name of the new copy
@@ -323,32 +891,421 @@ public class SFTPConnection implements RemoteConnection {
      */
     @Override
     public boolean copyDirectory(String sourceDir, String desDir) throws FTPClientException, IOException {
-        try {
-            if (checkRemoteDirectoryExists(sourceDir)) {
-                String tempFolder = System.getProperty("user.dir") + '\\' + "temp";
-                String tempFolderWithDes = System.getProperty("user.dir") + '\\' + "temp" + '\\' + desDir;
-                File theDir = new File(tempFolderWithDes);
-                if (!theDir.exists()) {
-                    theDir.mkdirs();
-                }
-                downloadDirectory("/" + sourceDir, tempFolderWithDes);
-                if (!checkRemoteDirectoryExists(desDir)) {
-                    sftpChannel.mkdir(desDir);
-                }
-                uploadDirectory(tempFolderWithDes, "/");
-                FileUtils.deleteDirectory(new File(tempFolder));
-                System.out.println("Successfully made a copy of " + sourceDir + " called " + desDir);
+        if (checkRemoteDirectoryExists(sourceDir)) {
+            if (copyDirectoryOnServer(sourceDir, desDir)) {
+                System.out.println("Successfully made a copy of " + sourceDir + " called " + desDir + " on the server");
                 return true;
             }
-            System.out.println(sourceDir + " directory does not exist");
-            return false;
-        } catch (SftpException e) {
-            throw new FTPClientException(e);
+            TransferSummary summary = copyDirectoryStreamed(sourceDir, desDir, COPY_PARALLELISM);
+            summary.printSummary();
+            if (summary.isSuccessful()) {
+                System.out.println("Successfully made a copy of " + sourceDir + " called " + desDir);
+            }
+            return summary.isSuccessful();
         }
+        System.out.println(sourceDir + " directory does not exist");
+        return false;
     }
 
     /**
-     * This method is used to download a single file from a remote SFTP server to local machine.
+     * This method is used to copy a directory with `cp -R` on the server itself, so no file data crosses
+     * the network. The server is probed once per connection: if the exec channel can not be opened, or if the
+     * probe does not find `cp` (eg: an account forced to `internal-sftp`, where exec runs sftp-server and
+     * exits 0), server side copy is disabled and the caller falls back to streaming. The copy is only trusted
+     * if every entry of sourceDir is then found in desDir, with the same size for files.
+     *
+     * The SFTP extensions `copy-data`/`copy-file` are only reported in the log, because JSch does not
+     * let us send extended requests.
+     *
+     * @param sourceDir - the remote directory you want to copy.
+     * @param desDir - the remote directory that receives the content of sourceDir.
+     * @return [boolean] - true if the server made the copy.
+     */
+    private boolean copyDirectoryOnServer(String sourceDir, String desDir) {
+        if (serverSideCopySupported == null) {
+            for (String extension : new String[]{"copy-data", "copy-file"}) {
+                if (sftpChannel.getExtension(extension) != null) {
+                    logger.debug("Server advertises the SFTP extension " + extension);
+                }
+            }
+            serverSideCopySupported = probeServerSideCopy();
+        }
+        if (!serverSideCopySupported) {
+            return false;
+        }
+        try {
+            String source = sftpChannel.realpath(sourceDir);
+            String destination = sftpChannel.realpath(desDir);
+            // "source/." copies the content of source, whether or not the destination already exists.
+            int exitStatus = runRemoteCommand("cp -R -p -- " + quoteForShell(source + "/.") + " " + quoteForShell(destination));
+            if (exitStatus != 0) {
+                logger.info("Server side copy failed with exit status " + exitStatus + ", falling back to streaming");
+                return false;
+            }
+            if (!sameEntries(source, destination)) {
+                logger.info("Server side copy of " + sourceDir + " is not complete, falling back to streaming");
+                return false;
+            }
+            return true;
+        } catch (JSchException e) {
+            logger.info("Server side copy is not available : " + e.getMessage());
+            serverSideCopySupported = false;
+        } catch (IOException | SftpException e) {
+            logger.info("Server side copy of " + sourceDir + " failed : " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * This method is used to check once that commands run by a shell with `cp` available.
+     *
+     * @return [boolean] - true if `cp` can be run over an exec channel.
+     */
+    private boolean probeServerSideCopy() {
+        String marker = "ftp-client-cp-available";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            int exitStatus = runRemoteCommand("command -v cp >/dev/null && echo " + marker, null, output);
+            if (exitStatus == 0 && output.toString(StandardCharsets.UTF_8.name()).trim().equals(marker)) {
+                return true;
+            }
+            logger.info("Server does not run shell commands with cp, copies are streamed");
+        } catch (JSchException | IOException e) {
+            logger.info("Server side copy is not available : " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @return [boolean] - true if every entry of sourceDir is in desDir, and every file has the same size.
+     */
+    private boolean sameEntries(String sourceDir, String desDir) throws IOException {
+        Map<String, RemoteFileEntry> copied = new HashMap<>();
+        if (!streamEntries(sftpChannel, desDir, entry -> {
+            copied.put(entry.getPath(), entry);
+            return true;
+        })) {
+            return false;
+        }
+        boolean[] same = {true};
+        boolean listed = streamEntries(sftpChannel, sourceDir, entry -> {
+            RemoteFileEntry copy = copied.get(entry.getPath());
+            same[0] = copy != null && copy.isDirectory() == entry.isDirectory()
+                    && (entry.isDirectory() || copy.getSize() == entry.getSize());
+            return same[0];
+        });
+        return listed && same[0];
+    }
+
+    /**
+     * This method is used to run a command on the server over an exec channel of the current session.
+     * Whatever the command prints on stderr is logged.
+     *
+     * @param command - shell command to run.
+     * @return [int] - exit status of the command.
+     * @throws JSchException - if the exec channel can not be opened.
+     * @throws IOException
+     */
+    int runRemoteCommand(String command) throws JSchException, IOException {
+        return runRemoteCommand(command, null, null);
+    }
+
+    /**
+     * RemoteCommandInput interface - writes the standard input of a remote command.
+     */
+    interface RemoteCommandInput {
+        void writeTo(OutputStream stdin) throws IOException;
+    }
+
+    /**
+     * This method is used to run a command on the server over an exec channel of the current session,
+     * feeding its standard input and collecting its standard output.
+     * The whole input is written before the output is read, so the command must not print much before
+     * its input ends. The error output is collected by the session while the command runs, so it can never
+     * block the command; only its first ERROR_OUTPUT_LIMIT bytes are logged.
+     *
+     * @param command - shell command to run.
+     * @param input - writes the standard input of the command, null for no input.
+     * @param output - receives the standard output of the command, null to discard it.
+     * @return [int] - exit status of the command.
+     * @throws JSchException - if the exec channel can not be opened.
+     * @throws IOException
+     */
+    int runRemoteCommand(String command, RemoteCommandInput input, OutputStream output) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try {
+            channel.setCommand(command);
+            OutputStream stdin = null;
+            if (input == null) {
+                channel.setInputStream(null);
+            } else {
+                stdin = channel.getOutputStream();
+            }
+            InputStream stdout = channel.getInputStream();
+            LimitedOutputStream stderr = new LimitedOutputStream(ERROR_OUTPUT_LIMIT);
+            channel.setErrStream(stderr, true);
+            channel.connect();
+            if (stdin != null) {
+                try {
+                    input.writeTo(stdin);
+                } finally {
+                    // Closing the stream sends EOF to the command.
+                    stdin.close();
+                }
+            }
+            if (output == null) {
+                byte[] buffer = new byte[1024];
+                while (stdout.read(buffer) >= 0) {
+                    // The output is not used, it is only drained so the command can finish.
+                }
+            } else {
+                IOUtils.copy(stdout, output);
+            }
+            while (!channel.isClosed()) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            String errors = stderr.toString().trim();
+            if (!errors.isEmpty()) {
+                logger.debug("Remote command [" + command + "] : " + errors);
+            }
+            return channel.getExitStatus();
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * LimitedOutputStream class - keeps the first bytes written to it, and drops the rest.
+     */
+    private static class LimitedOutputStream extends OutputStream {
+        private final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        private final int limit;
+
+        LimitedOutputStream(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (kept.size() < limit) {
+                kept.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            kept.write(b, off, Math.max(0, Math.min(len, limit - kept.size())));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * This method is used to update a large remote file by sending only the blocks that changed, rsync style.
+     * The server lists checksums of the blocks of its copy, the local file is matched against them, and a
+     * delta of block references and literal data is applied on the server, which then returns the MD5 of
+     * the rebuilt file. Both steps run a python3 helper over an exec channel, on the real path resolved by
+     * the SFTP subsystem.
+     *
+     * The whole file is uploaded instead when there is no remote copy yet, when python3 can not be run on
+     * the server, when the shell of the exec channel does not see the same file as the SFTP subsystem
+     * (eg: a chrooted SFTP subsystem), or when the rebuilt file does not match the local file.
+     *
+     * @param localFilePath - this is the path on local system.
+     * @param remoteDir - remote directory that holds the old version of the file.
+     * @return [TransferSummary] - one success with the bytes that were actually sent, or the failure.
+     * @throws FTPClientException - if the local file is not valid.
+     */
+    public TransferSummary uploadSingleFileDelta(String localFilePath, String remoteDir) throws FTPClientException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            throw new FTPClientException("The local path provided is not valid : " + localFilePath);
+        }
+        String remoteFilePath = DirectorySync.remotePath(remoteDir, localFile.getName());
+        TransferSummary summary = new TransferSummary();
+        try {
+            SftpATTRS remoteAttrs = sftpChannel.stat(remoteFilePath);
+            long remoteSize = remoteAttrs.getSize();
+            int blockSize = DeltaTransfer.chooseBlockSize(remoteSize);
+            String realPath = sftpChannel.realpath(remoteFilePath);
+            String helper = "python3 -c " + quoteForShell(DeltaTransfer.HELPER_SCRIPT) + " ";
+            String arguments = " " + quoteForShell(realPath) + " " + blockSize;
+
+            ByteArrayOutputStream statOutput = new ByteArrayOutputStream();
+            if (runRemoteCommand(helper + "stat" + arguments, null, statOutput) != 0
+                    || !DeltaTransfer.isSameFile(statOutput.toString(StandardCharsets.UTF_8.name()), realPath, remoteSize, remoteAttrs.getMTime())) {
+                throw new IOException("The shell of the server does not see the same file as the SFTP subsystem");
+            }
+
+            ByteArrayOutputStream signatureOutput = new ByteArrayOutputStream();
+            if (runRemoteCommand(helper + "sig" + arguments, null, signatureOutput) != 0) {
+                throw new IOException("Block signatures could not be computed on the server");
+            }
+            Map<Integer, List<DeltaTransfer.BlockSignature>> signatures =
+                    DeltaTransfer.parseSignatures(signatureOutput.toString(StandardCharsets.UTF_8.name()));
+
+            DeltaTransfer.DeltaResult[] result = new DeltaTransfer.DeltaResult[1];
+            ByteArrayOutputStream patchOutput = new ByteArrayOutputStream();
+            int exitStatus = runRemoteCommand(helper + "patch" + arguments,
+                    stdin -> result[0] = DeltaTransfer.writeDelta(localFile, blockSize, signatures,
+                            new BufferedOutputStream(stdin, LocalFileChannels.DIRECT_BUFFER_SIZE)),
+                    patchOutput);
+            String remoteMd5 = patchOutput.toString(StandardCharsets.UTF_8.name()).trim();
+            if (exitStatus != 0 || !remoteMd5.equals(result[0].md5)) {
+                throw new IOException("Delta could not be applied on the server");
+            }
+            logger.info("Delta upload of [" + localFilePath + "] sent " + result[0].literalBytes + " literal bytes and reused "
+                    + result[0].matchedBlocks + " blocks of " + blockSize + " bytes");
+            summary.recordSuccess(result[0].literalBytes);
+        } catch (SftpException | JSchException | IOException e) {
+            logger.info("Delta upload of [" + localFilePath + "] not possible, uploading the whole file : " + e.getMessage());
+            try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
+                sftpChannel.put(inputStream, remoteFilePath, ChannelSftp.OVERWRITE);
+                summary.recordSuccess(localFile.length());
+            } catch (SftpException | IOException uploadException) {
+                summary.recordFailure(localFilePath, uploadException.getMessage());
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * @param value - any string
+     * @return [String] - the string in single quotes, safe to pass as one argument to a POSIX shell.
+     */
+    static String quoteForShell(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * This method is used to copy a remote directory to another remote directory on the same server,
+     * without touching the local disk. Every worker opens two sftp channels on the current session: it
+     * reads a file on the first one and writes the same stream on the second one, so at most one copy
+     * buffer per worker is held in memory.
+     *
+     * @param sourceDir - the remote directory you want to copy.
+     * @param desDir - the remote directory that receives the content of sourceDir.
+     * @param parallel - number of files copied at once.
+     * @return [TransferSummary] - aggregate throughput and the files that failed.
+     * @throws FTPClientException
+     */
+    @Override
+    public TransferSummary copyDirectoryStreamed(String sourceDir, String desDir, int parallel) throws FTPClientException {
+        BlockingQueue<TransferTask> queue = new LinkedBlockingQueue<>();
+        try {
+            planRemoteCopy(sourceDir, desDir, queue);
+        } catch (SftpException e) {
+            throw new FTPClientException(e);
+        }
+        TransferSummary summary = new TransferSummary();
+        int workerCount = Math.max(1, parallel);
+        for (int i = 0; i < workerCount; i++) {
+            queue.add(TransferTask.END_OF_QUEUE);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> drainCopyQueue(queue, summary));
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        for (TransferTask task : queue) {
+            if (task != TransferTask.END_OF_QUEUE) {
+                summary.recordFailure(task.getRemotePath(), "No sftp channel available to copy the file");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is used to walk the source tree, create the matching directories under desDir
+     * and queue every file. For a copy task, the local path holds the remote destination path.
+     *
+     * @param sourceDir - remote directory to copy.
+     * @param desDir - remote directory matching sourceDir.
+     * @param queue - queue that collects the files.
+     * @throws SftpException
+     * @throws FTPClientException
+     */
+    private void planRemoteCopy(String sourceDir, String desDir, BlockingQueue<TransferTask> queue) throws SftpException, FTPClientException {
+        if (!checkRemoteDirectoryExists(desDir)) {
+            sftpChannel.mkdir(desDir);
+        }
+        List<String> directories = new ArrayList<>();
+        try {
+            streamEntries(sftpChannel, sourceDir, entry -> {
+                if (entry.isDirectory()) {
+                    directories.add(entry.getPath());
+                } else {
+                    queue.add(new TransferTask(desDir + "/" + entry.getPath(), sourceDir + "/" + entry.getPath(), entry.getSize()));
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+        for (String directory : directories) {
+            planRemoteCopy(sourceDir + "/" + directory, desDir + "/" + directory, queue);
+        }
+    }
+
+    /**
+     * This method is run by every copy worker. It opens a reading and a writing sftp channel and streams
+     * files from one to the other, until it finds the end of queue marker.
+     *
+     * @param queue - shared queue of files to copy.
+     * @param summary - collects the result of every file.
+     */
+    private void drainCopyQueue(BlockingQueue<TransferTask> queue, TransferSummary summary) {
+        ChannelSftp source;
+        ChannelSftp target;
+        try {
+            source = openSftpChannel();
+        } catch (JSchException e) {
+            logger.error("Could not open parallel sftp channel : " + e.getMessage());
+            return;
+        }
+        try {
+            target = openSftpChannel();
+        } catch (JSchException e) {
+            logger.error("Could not open parallel sftp channel : " + e.getMessage());
+            source.disconnect();
+            return;
+        }
+        try {
+            TransferTask task;
+            while ((task = queue.take()) != TransferTask.END_OF_QUEUE) {
+                try (InputStream inputStream = source.get(task.getRemotePath())) {
+                    target.put(inputStream, task.getLocalPath(), ChannelSftp.OVERWRITE);
+                    summary.recordSuccess(task.getSize());
+                } catch (SftpException | IOException e) {
+                    summary.recordFailure(task.getRemotePath(), e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            source.disconnect();
+            target.disconnect();
+        }
+    }
+
+    /**
+     * This method is used to download a single file from a remote SFTP server to local machine.
      *
      * @param localPath - local path where you want to download the file to.
      * @param remotePath - remote path from where you want to download the file from.
@@ -364,8 +1321,7 @@ public class SFTPConnection implements RemoteConnection {
                 downloadLocation.mkdirs();
             }
             String fileName = getFileNameFromRemote(remotePath);
-            String outputLocation = localPath + File.separator + fileName;
-            sftpChannel.get(remotePath, outputLocation);
+            getToLocalFile(sftpChannel, remotePath, new File(localPath + File.separator + fileName));
             logger.info("Downloading file : [" + fileName + "] from remote location");
             return true;
         } catch (SftpException e) {
@@ -374,6 +1330,188 @@ public class SFTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to download a single file into a local directory, under its remote name.
+     *
+     * @param localDir - local directory where you want to download the file to.
+     * @param remoteFilePath - remote path from where you want to download the file from.
+     * @return [boolean] - true if success.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean downloadFileToDirectory(String localDir, String remoteFilePath) throws IOException, FTPClientException {
+        return downloadSingleFile(localDir, remoteFilePath);
+    }
+
+    /**
+     * This method is used to download a remote file into a local file. The remote file is opened first,
+     * so a remote file that can not be read never leaves an empty local file behind.
+     *
+     * @param channel - sftp channel to read the file with.
+     * @param remotePath - remote file.
+     * @param localFile - local file, it is created or truncated.
+     * @throws SftpException - if the remote file can not be opened or read.
+     * @throws IOException
+     */
+    private static void getToLocalFile(ChannelSftp channel, String remotePath, File localFile) throws SftpException, IOException {
+        try (InputStream inputStream = channel.get(remotePath);
+             OutputStream outputStream = LocalFileChannels.openOutput(localFile, false)) {
+            IOUtils.copyLarge(inputStream, outputStream, new byte[SFTP_COPY_BUFFER_SIZE]);
+        }
+    }
+
+    /**
+     * This method is used to download one large file as several byte ranges at once. The local file is
+     * preallocated, and every range is read from its offset over one of `channels` sftp channels
+     * of the current session and written at its own position.
+     *
+     * @param localPath - local directory where you want to download the file to.
+     * @param remotePath - remote path from where you want to download the file from.
+     * @param channels - number of sftp channels used to fetch the ranges.
+     * @param segmentSize - size of every range in bytes, 0 to use the default of 64 MB.
+     * @return [TransferSummary] - one success per range, and the ranges that failed.
+     * @throws IOException
+     * @throws FTPClientException
+     */
+    public TransferSummary downloadSingleFileSegmented(String localPath, String remotePath, int channels, long segmentSize) throws IOException, FTPClientException {
+        long fileSize;
+        try {
+            fileSize = sftpChannel.stat(remotePath).getSize();
+        } catch (SftpException e) {
+            throw new FTPClientException(e);
+        }
+        if (!checkLocalDirectoryExists(localPath)) {
+            new File(localPath).mkdirs();
+        }
+        File downloadFile = new File(localPath, getFileNameFromRemote(remotePath));
+        int workerCount = Math.max(1, channels);
+        BlockingQueue<long[]> segments = SegmentedTransfer.planSegments(fileSize, segmentSize, workerCount);
+        TransferSummary summary = new TransferSummary();
+        try (RandomAccessFile localFile = new RandomAccessFile(downloadFile, "rw")) {
+            localFile.setLength(fileSize);
+            FileChannel fileChannel = localFile.getChannel();
+            ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                executor.submit(() -> drainSegmentQueue(remotePath, segments, fileChannel, summary));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        for (long[] segment : segments) {
+            if (segment != SegmentedTransfer.END_OF_QUEUE) {
+                summary.recordFailure(remotePath + "@" + segment[0], "No sftp channel available to download the segment");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is used to download a single file over a dedicated sftp channel, that keeps a window of
+     * `outstandingRequests` READ requests of 32 KB in flight. A new request is sent as soon as a reply
+     * arrives, so the link stays busy even when the round trip is long. The replies are put back in order
+     * by the channel and written sequentially into a FileChannel.
+     *
+     * @param localPath - local directory where you want to download the file to.
+     * @param remotePath - remote path from where you want to download the file from.
+     * @param outstandingRequests - number of READ requests in flight, eg: 64.
+     * @return [TransferSummary] - one success with the size of the file, or the failure.
+     * @throws IOException
+     */
+    public TransferSummary downloadSingleFilePipelined(String localPath, String remotePath, int outstandingRequests) throws IOException {
+        if (!checkLocalDirectoryExists(localPath)) {
+            new File(localPath).mkdirs();
+        }
+        File downloadFile = new File(localPath, getFileNameFromRemote(remotePath));
+        TransferSummary summary = new TransferSummary();
+        ChannelSftp channel = null;
+        try {
+            channel = openSftpChannel(Math.max(1, outstandingRequests));
+            long fileSize = channel.stat(remotePath).getSize();
+            getToLocalFile(channel, remotePath, downloadFile);
+            summary.recordSuccess(fileSize);
+        } catch (JSchException | SftpException | IOException e) {
+            summary.recordFailure(remotePath, e.getMessage());
+        } finally {
+            if (channel != null) {
+                channel.disconnect();
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is used to upload a single file over a dedicated sftp channel, that keeps a window of
+     * `outstandingRequests` WRITE requests of 32 KB in flight, instead of waiting for every status reply.
+     *
+     * @param localFilePath - this is the path on local system.
+     * @param remoteDir - remote directory that receives the file.
+     * @param outstandingRequests - number of WRITE requests in flight, eg: 64.
+     * @return [TransferSummary] - one success with the size of the file, or the failure.
+     * @throws FTPClientException
+     */
+    public TransferSummary uploadSingleFilePipelined(String localFilePath, String remoteDir, int outstandingRequests) throws FTPClientException {
+        File localFile = new File(localFilePath);
+        if (!localFile.isFile()) {
+            throw new FTPClientException("The local path provided is not valid : " + localFilePath);
+        }
+        String remoteFilePath = remoteDir + "/" + localFile.getName();
+        TransferSummary summary = new TransferSummary();
+        ChannelSftp channel = null;
+        try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
+            channel = openSftpChannel(Math.max(1, outstandingRequests));
+            channel.put(inputStream, remoteFilePath, ChannelSftp.OVERWRITE);
+            summary.recordSuccess(localFile.length());
+        } catch (JSchException | SftpException | IOException e) {
+            summary.recordFailure(localFilePath, e.getMessage());
+        } finally {
+            if (channel != null) {
+                channel.disconnect();
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is run by every segment worker. It opens its own sftp channel and reads ranges of the
+     * remote file, until it finds the end of queue marker.
+     *
+     * @param remotePath - remote file being downloaded.
+     * @param segments - shared queue of {offset, length} ranges.
+     * @param fileChannel - preallocated local file.
+     * @param summary - collects the result of every range.
+     */
+    private void drainSegmentQueue(String remotePath, BlockingQueue<long[]> segments, FileChannel fileChannel, TransferSummary summary) {
+        ChannelSftp channel;
+        try {
+            channel = openSftpChannel();
+        } catch (JSchException e) {
+            logger.error("Could not open parallel sftp channel : " + e.getMessage());
+            return;
+        }
+        try {
+            long[] segment;
+            while ((segment = segments.take()) != SegmentedTransfer.END_OF_QUEUE) {
+                try (InputStream inputStream = channel.get(remotePath, null, segment[0])) {
+                    SegmentedTransfer.copyRange(inputStream, fileChannel, segment[0], segment[1]);
+                    summary.recordSuccess(segment[1]);
+                } catch (SftpException | IOException e) {
+                    summary.recordFailure(remotePath + "@" + segment[0], e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.disconnect();
+        }
+    }
+
     /**
      * This method is used to download a multiple files from a remote SFTP server to local machine.
      *
@@ -408,34 +1546,34 @@ public class SFTPConnection implements RemoteConnection {
             return 0;
         }
 
-        ArrayList<String> result = new ArrayList<>();
-        try {
-            Vector fileList = sftpChannel.ls(filePath);
-            for (Object sftpFile : fileList) {
-                ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) sftpFile;
-                if (entry.getFilename().contains(keyword)) {
-                    result.add(entry.getFilename());
-                }
-            }
-            printSearchResult(result);
-        } catch (SftpException e) {
-            throw new FTPClientException(e);
-        }
-        return result.size();
+        return searchFiles(filePath, entry -> entry.getPath().contains(keyword));
     }
 
     /**
-     * This method is used to print the search result for 'searchFilesWithKeyword' and 'searchFilesWithExtension' functions.
+     * This method is used to print the search result for 'searchFilesWithKeyword' and 'searchFilesWithExtension' functions,
+     * as the entries are listed.
      *
-     * @param result - list of file names, which contain keyword/ extension.
+     * @param filePath - file path, where you want to search.
+     * @param filter - selects the entries to print.
+     * @return [int] - number of entries printed.
+     * @throws FTPClientException
      */
-    private void printSearchResult(ArrayList<String> result) {
-        if (result != null && result.size() > 0) {
-            System.out.println("SEARCH RESULT:");
-            for (String ftpFile : result) {
-                System.out.println(ftpFile);
-            }
+    private int searchFiles(String filePath, Predicate<RemoteFileEntry> filter) throws FTPClientException {
+        int[] found = {0};
+        try {
+            streamEntries(sftpChannel, filePath, entry -> {
+                if (filter.test(entry)) {
+                    if (found[0]++ == 0) {
+                        System.out.println("SEARCH RESULT:");
+                    }
+                    System.out.println(entry.getPath());
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            throw new FTPClientException(e);
         }
+        return found[0];
     }
 
     /**
@@ -453,20 +1591,50 @@ public class SFTPConnection implements RemoteConnection {
         }
 
         String ext = extension.startsWith(".") ? extension : "." + extension;
-        ArrayList<String> result = new ArrayList<>();
+        return searchFiles(filePath, entry -> entry.getPath().endsWith(ext));
+    }
+
+    /**
+     * This method is used to search a whole remote tree, breadth first, with SEARCH_PARALLELISM sftp channels at once.
+     * Matches are handed to `results` as soon as they are listed, with their full remote path.
+     * When a RemoteTreeManifest is set, the tree is read from it instead, listing only the directories that changed.
+     *
+     * @param remoteDir - directory the search starts from.
+     * @param matcher - eg: RemoteFileMatcher.glob("*.log")
+     * @param maxDepth - number of directory levels below remoteDir that are searched, negative for no limit.
+     * @param maxResults - the search stops after this many matches, 0 or negative for no limit.
+     * @param results - receives the matches one at a time, it can stop the search.
+     * @return [int] - number of matches.
+     * @throws FTPClientException
+     */
+    @Override
+    public int searchTree(String remoteDir, RemoteFileMatcher matcher, int maxDepth, int maxResults, RemoteEntryVisitor results) throws FTPClientException {
         try {
-            Vector fileList = sftpChannel.ls(filePath);
-            for (Object sftpFile : fileList) {
-                ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) sftpFile;
-                if (entry.getFilename().endsWith(ext)) {
-                    result.add(entry.getFilename());
-                }
+            if (remoteTreeManifest != null) {
+                return ParallelTreeSearch.searchListed(remoteDir, getRemoteTree(remoteDir), matcher, maxDepth, maxResults, results);
             }
-            printSearchResult(result);
-        } catch (SftpException e) {
+            return ParallelTreeSearch.search(remoteDir, matcher, maxDepth, maxResults, SEARCH_PARALLELISM, () -> {
+                ChannelSftp channel;
+                try {
+                    channel = openSftpChannel();
+                } catch (JSchException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                return new ParallelTreeSearch.DirectoryReader() {
+                    @Override
+                    public boolean read(String dir, RemoteEntryVisitor visitor) throws IOException {
+                        return streamEntries(channel, dir, visitor);
+                    }
+
+                    @Override
+                    public void close() {
+                        channel.disconnect();
+                    }
+                };
+            }, results);
+        } catch (IOException e) {
             throw new FTPClientException(e);
         }
-        return result.size();
     }
 
     /**
@@ -487,17 +1655,18 @@ public class SFTPConnection implements RemoteConnection {
                     downloadLocation.mkdirs();
                 }
                 if (checkRemoteDirectoryExists(currentDir)) {
-                    Vector<ChannelSftp.LsEntry> list = sftpChannel.ls(currentDir);
-                    for (ChannelSftp.LsEntry listItem : list) {
-                        if (!listItem.getAttrs().isDir()) {
-                            if (!(new File(saveDir + "/" + listItem.getFilename())).exists() ||
-                                    (listItem.getAttrs().getMTime() > Long.valueOf(new File(saveDir + "/" + listItem.getFilename()).lastModified() / (long) 1000).intValue())) {
-                                new File(saveDir + "/" + listItem.getFilename());
-                                sftpChannel.get(currentDir + "/" + listItem.getFilename(), saveDir + "/" + listItem.getFilename());
+                    // The channel cannot download while it is listing, so the entries are kept until the listing ends.
+                    List<RemoteFileEntry> list = new ArrayList<>();
+                    streamEntries(sftpChannel, currentDir, list::add);
+                    for (RemoteFileEntry listItem : list) {
+                        if (!listItem.isDirectory()) {
+                            if (!(new File(saveDir + "/" + listItem.getPath())).exists() ||
+                                    (listItem.getModifiedTime() / 1000 > new File(saveDir + "/" + listItem.getPath()).lastModified() / 1000)) {
+                                getToLocalFile(sftpChannel, currentDir + "/" + listItem.getPath(), new File(saveDir + "/" + listItem.getPath()));
                             }
-                        } else if (!(".".equals(listItem.getFilename()) || "..".equals(listItem.getFilename()))) {
-                            new File(saveDir + "/" + listItem.getFilename()).mkdirs();
-                            downloadDirectory(currentDir + "/" + listItem.getFilename(), saveDir + "/" + listItem.getFilename());
+                        } else {
+                            new File(saveDir + "/" + listItem.getPath()).mkdirs();
+                            downloadDirectory(currentDir + "/" + listItem.getPath(), saveDir + "/" + listItem.getPath());
                         }
                     }
                 }
@@ -528,14 +1697,8 @@ public class SFTPConnection implements RemoteConnection {
                 if (sourceFile.isFile()) {
                     sftpChannel.cd(remoteParentDir);
                     if (!sourceFile.getName().startsWith(".")) {
-                        FileInputStream fileInputStream = null;
-                        try {
-                            fileInputStream = new FileInputStream(sourceFile);
-                            sftpChannel.put(fileInputStream, sourceFile.getName(), ChannelSftp.OVERWRITE);
-                        } finally {
-                            if (fileInputStream != null) {
-                                fileInputStream.close();
-                            }
+                        try (InputStream inputStream = LocalFileChannels.openInput(sourceFile)) {
+                            sftpChannel.put(inputStream, sourceFile.getName(), ChannelSftp.OVERWRITE);
                         }
 
                     }
@@ -568,6 +1731,454 @@ public class SFTPConnection implements RemoteConnection {
         }
     }
 
+    /**
+     * This method is used to upload a directory on local onto the remote server, using several sftp channels
+     * of the current session at once. All remote directories are created up front, so that the channels
+     * only have to send the files, using absolute paths.
+     *
+     * @param localParentDir - local directory to upload.
+     * @param remoteParentDir - remote directory, the local directory is created inside it.
+     * @param channels - number of sftp channels used to upload the files.
+     * @return [TransferSummary] - aggregate throughput and the files that failed.
+     * @throws FTPClientException
+     */
+    public TransferSummary uploadDirectoryParallel(String localParentDir, String remoteParentDir, int channels) throws FTPClientException {
+        File sourceDir = new File(localParentDir);
+        if (!sourceDir.isDirectory()) {
+            throw new FTPClientException("Not a valid local directory : " + localParentDir);
+        }
+        String remoteRoot = (remoteParentDir.endsWith("/") ? remoteParentDir : remoteParentDir + "/") + sourceDir.getName();
+        List<String> remoteDirs = new ArrayList<>();
+        BlockingQueue<TransferTask> queue = new LinkedBlockingQueue<>();
+        planUpload(sourceDir, remoteRoot, remoteDirs, queue);
+
+        TransferSummary summary = new TransferSummary();
+        try {
+            for (String remoteDir : remoteDirs) {
+                if (!checkRemoteDirectoryExists(remoteDir)) {
+                    sftpChannel.mkdir(remoteDir);
+                }
+            }
+        } catch (SftpException e) {
+            throw new FTPClientException(e);
+        }
+
+        int workerCount = Math.max(1, channels);
+        for (int i = 0; i < workerCount; i++) {
+            queue.add(TransferTask.END_OF_QUEUE);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> drainUploadQueue(queue, summary));
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FTPClientException(e);
+        }
+        // Files are left on the queue only if no channel could be opened.
+        for (TransferTask task : queue) {
+            if (task != TransferTask.END_OF_QUEUE) {
+                summary.recordFailure(task.getLocalPath(), "No sftp channel available to upload the file");
+            }
+        }
+        summary.finish();
+        return summary;
+    }
+
+    /**
+     * This method is used to walk the local tree once, collecting the remote directories to create
+     * (parents before children) and queueing every file to upload. Hidden files and directories are skipped.
+     *
+     * @param localDir - local directory to walk.
+     * @param remoteDir - remote path matching localDir.
+     * @param remoteDirs - list that collects the remote directories.
+     * @param queue - queue that collects the files.
+     */
+    private void planUpload(File localDir, String remoteDir, List<String> remoteDirs, BlockingQueue<TransferTask> queue) {
+        remoteDirs.add(remoteDir);
+        File[] files = localDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().startsWith(".")) {
+                continue;
+            }
+            String remotePath = remoteDir + "/" + f.getName();
+            if (f.isDirectory()) {
+                planUpload(f, remotePath, remoteDirs, queue);
+            } else {
+                queue.add(new TransferTask(f.getAbsolutePath(), remotePath, f.length()));
+            }
+        }
+    }
+
+    /**
+     * This method is run by every upload worker. It opens its own sftp channel on the current session
+     * and uploads files from the queue, until it finds the end of queue marker.
+     *
+     * @param queue - shared queue of files to upload.
+     * @param summary - collects the result of every file.
+     */
+    private void drainUploadQueue(BlockingQueue<TransferTask> queue, TransferSummary summary) {
+        ChannelSftp channel;
+        try {
+            channel = openSftpChannel();
+        } catch (JSchException e) {
+            logger.error("Could not open parallel sftp channel : " + e.getMessage());
+            return;
+        }
+        try {
+            TransferTask task;
+            while ((task = queue.take()) != TransferTask.END_OF_QUEUE) {
+                try (InputStream inputStream = LocalFileChannels.openInput(new File(task.getLocalPath()))) {
+                    logger.debug("Uploading file : [" + task.getLocalPath() + "] on a parallel channel");
+                    channel.put(inputStream, task.getRemotePath(), ChannelSftp.OVERWRITE);
+                    summary.recordSuccess(task.getSize());
+                } catch (SftpException | IOException e) {
+                    summary.recordFailure(task.getLocalPath(), e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * This method is used to open one more sftp channel on the current session.
+     *
+     * @return [ChannelSftp] - connected channel.
+     * @throws JSchException
+     */
+    ChannelSftp openSftpChannel() throws JSchException {
+        return openSftpChannel(transferProfile == null ? 0 : transferProfile.getSftpOutstandingRequests());
+    }
+
+    /**
+     * This method is used to open one more sftp channel on the current session, that keeps
+     * `outstandingRequests` read or write requests in flight.
+     *
+     * @param outstandingRequests - requests in flight, 0 to keep the JSch default of 16.
+     * @return [ChannelSftp] - connected channel.
+     * @throws JSchException
+     */
+    private ChannelSftp openSftpChannel(int outstandingRequests) throws JSchException {
+        ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+        applyChannelWindow(channel, outstandingRequests);
+        channel.connect();
+        if (outstandingRequests > 0) {
+            channel.setBulkRequests(outstandingRequests);
+        }
+        return channel;
+    }
+
+    /**
+     * This method is used to set the SSH window and the max packet size of a channel, before it is connected.
+     * They decide how many bytes the server may send before it waits for us, so the window must hold the
+     * bandwidth-delay product of the link. JSch does not expose these settings, so they are set by reflection.
+     *
+     * The window is made large enough to hold every outstanding read reply, or the server would stall
+     * before the request window is full.
+     *
+     * @param channel - channel that is not connected yet.
+     * @param outstandingRequests - read requests that will be kept in flight on the channel.
+     */
+    private void applyChannelWindow(Channel channel, int outstandingRequests) {
+        int windowSize = transferProfile == null ? 0 : transferProfile.getSshWindowSize();
+        if (outstandingRequests > 0) {
+            // Every reply carries up to one request of data, plus the packet headers.
+            windowSize = Math.max(windowSize, outstandingRequests * (SFTP_REQUEST_SIZE + 1024));
+        }
+        int packetSize = transferProfile == null ? 0 : transferProfile.getSshMaxPacketSize();
+        if (windowSize <= 0 && packetSize <= 0) {
+            return;
+        }
+        try {
+            if (windowSize > 0) {
+                invokeChannelSetter(channel, "setLocalWindowSizeMax", windowSize);
+                invokeChannelSetter(channel, "setLocalWindowSize", windowSize);
+            }
+            if (packetSize > 0) {
+                invokeChannelSetter(channel, "setLocalPacketSize", packetSize);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Could not set the SSH window, using the JSch defaults : " + e.getMessage());
+        }
+    }
+
+    private static void invokeChannelSetter(Channel channel, String methodName, int value) throws ReflectiveOperationException {
+        Method method = Channel.class.getDeclaredMethod(methodName, int.class);
+        method.setAccessible(true);
+        method.invoke(channel, value);
+    }
+
+    /**
+     * TunedSocketFactory class - opens the SSH socket with the buffers and TCP options of a transfer profile.
+     * The buffers are set before the socket connects, so that TCP can negotiate a large enough window scale.
+     */
+    private static class TunedSocketFactory implements SocketFactory {
+        private final TransferProfile transferProfile;
+
+        TunedSocketFactory(TransferProfile transferProfile) {
+            this.transferProfile = transferProfile;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            Socket socket = new Socket();
+            if (transferProfile.getSendBufferSize() > 0) {
+                socket.setSendBufferSize(transferProfile.getSendBufferSize());
+            }
+            if (transferProfile.getReceiveBufferSize() > 0) {
+                socket.setReceiveBufferSize(transferProfile.getReceiveBufferSize());
+            }
+            socket.setTcpNoDelay(transferProfile.isTcpNoDelay());
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public InputStream getInputStream(Socket socket) throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream(Socket socket) throws IOException {
+            return socket.getOutputStream();
+        }
+    }
+
+    /**
+     * This method is used to make a local directory and a remote directory identical, transferring only the
+     * files that are missing or differ in size or modification time. Both trees are listed once.
+     * Modification times are copied with the files, so that the next sync finds them unchanged.
+     *
+     * @param localDir - local directory.
+     * @param remoteDir - remote directory.
+     * @param direction - PUSH to update the remote directory, PULL to update the local directory.
+     * @param deleteExtraneous - true to delete the files of the destination that do not exist in the source.
+     * @param dryRun - true to only print what would be done.
+     * @return [TransferSummary] - the files that were (or would be) transferred, and the failures.
+     * @throws FTPClientException
+     */
+    @Override
+    public TransferSummary sync(String localDir, String remoteDir, SyncDirection direction, boolean deleteExtraneous, boolean dryRun) throws FTPClientException {
+        if (direction == SyncDirection.PUSH && !dryRun && !checkRemoteDirectoryExists(remoteDir)) {
+            try {
+                sftpChannel.mkdir(remoteDir);
+            } catch (SftpException e) {
+                throw new FTPClientException(e);
+            }
+        }
+        return DirectorySync.sync(localDir, direction, deleteExtraneous, dryRun, new SftpSyncTransport(remoteDir));
+    }
+
+    /**
+     * This method is used to share a manifest of remote trees with this connection. The operations that
+     * walk a remote tree without changing it (listRemoteTree, searchTree) then only list the directories
+     * that changed since the last walk. sync and deleteDirectory change the tree, so they always list it live.
+     *
+     * @param remoteTreeManifest - the manifest, null to list the trees completely every time.
+     */
+    @Override
+    public void setRemoteTreeManifest(RemoteTreeManifest remoteTreeManifest) {
+        this.remoteTreeManifest = remoteTreeManifest;
+    }
+
+    /**
+     * This method is used to read a remote directory one entry at a time. JSch hands every batch of names
+     * the server sends to the visitor, so the listing is never held in memory as a whole.
+     * The visitor must not use this connection, the channel is busy until the listing ends.
+     *
+     * @param remoteDir - remote directory.
+     * @param visitor - receives the entries, it can stop the listing.
+     * @return [boolean] - false if the directory does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public boolean streamDirectory(String remoteDir, RemoteEntryVisitor visitor) throws FTPClientException {
+        try {
+            return streamEntries(sftpChannel, remoteDir, visitor);
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+    }
+
+    private static boolean streamEntries(ChannelSftp channel, String remoteDir, RemoteEntryVisitor visitor) throws IOException {
+        IOException[] failure = new IOException[1];
+        try {
+            channel.ls(remoteDir, lsEntry -> {
+                String name = lsEntry.getFilename();
+                if (".".equals(name) || "..".equals(name)) {
+                    return ChannelSftp.LsEntrySelector.CONTINUE;
+                }
+                SftpATTRS attrs = lsEntry.getAttrs();
+                try {
+                    boolean next = visitor.visit(new RemoteFileEntry(name, attrs.isDir() ? 0 : attrs.getSize(), attrs.getMTime() * 1000L, attrs.isDir()));
+                    return next ? ChannelSftp.LsEntrySelector.CONTINUE : ChannelSftp.LsEntrySelector.BREAK;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return ChannelSftp.LsEntrySelector.BREAK;
+                }
+            });
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return false;
+            }
+            throw new IOException("Could not list " + remoteDir + " : " + e.getMessage(), e);
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return true;
+    }
+
+    /**
+     * This method is used to replace the cache of remote paths known to exist, eg: to change its time to live.
+     *
+     * @param metadataCache - the cache, new RemoteMetadataCache(0, 0) to always ask the server.
+     */
+    @Override
+    public void setMetadataCache(RemoteMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * This method is used to get every file and directory under a remote directory.
+     *
+     * @param remoteDir - remote directory.
+     * @return [Map] - entries sorted by path relative to remoteDir, empty if it does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public Map<String, RemoteFileEntry> listRemoteTree(String remoteDir) throws FTPClientException {
+        return listRemoteTree(remoteDir, remoteTreeManifest);
+    }
+
+    /**
+     * This method is used to get every file and directory under a remote directory, with a manifest that is
+     * only used for this listing, whatever manifest is set on the connection.
+     *
+     * @param remoteDir - remote directory.
+     * @param manifest - listings kept from earlier calls, null to list the tree completely.
+     * @return [Map] - entries sorted by path relative to remoteDir, empty if it does not exist.
+     * @throws FTPClientException
+     */
+    @Override
+    public Map<String, RemoteFileEntry> listRemoteTree(String remoteDir, RemoteTreeManifest manifest) throws FTPClientException {
+        try {
+            return (manifest != null ? manifest : new RemoteTreeManifest(null)).getTree(remoteDir, new SftpDirectoryLister());
+        } catch (IOException e) {
+            throw new FTPClientException(e);
+        }
+    }
+
+    private Map<String, RemoteFileEntry> getRemoteTree(String remoteDir) throws IOException {
+        RemoteTreeManifest manifest = remoteTreeManifest != null ? remoteTreeManifest : new RemoteTreeManifest(null);
+        return manifest.getTree(remoteDir, new SftpDirectoryLister());
+    }
+
+    private void invalidateManifest(String remotePath) {
+        if (remoteTreeManifest != null) {
+            remoteTreeManifest.invalidateParentOf(remotePath);
+        }
+    }
+
+    /**
+     * SftpDirectoryLister class - lists directories for the manifest, with one stat per directory to check it.
+     */
+    private class SftpDirectoryLister implements RemoteTreeManifest.DirectoryLister {
+        @Override
+        public long getModifiedTime(String remoteDir) throws IOException {
+            try {
+                return sftpChannel.stat(remoteDir).getMTime() * 1000L;
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    return RemoteFileEntry.UNKNOWN_TIME;
+                }
+                throw new IOException("Could not stat " + remoteDir + " : " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public List<RemoteFileEntry> list(String remoteDir) throws IOException {
+            List<RemoteFileEntry> entries = new ArrayList<>();
+            return streamEntries(sftpChannel, remoteDir, entries::add) ? entries : null;
+        }
+    }
+
+    /**
+     * SftpSyncTransport class - the remote operations of a sync, for a remote root directory.
+     */
+    private class SftpSyncTransport implements DirectorySync.Transport {
+        private final String remoteRoot;
+
+        SftpSyncTransport(String remoteRoot) {
+            this.remoteRoot = remoteRoot;
+        }
+
+        @Override
+        public Map<String, RemoteFileEntry> listRemoteTree() throws IOException {
+            // Always a live listing: the manifest does not see files rewritten in place, and sync would skip them.
+            return new RemoteTreeManifest(null).getTree(remoteRoot, new SftpDirectoryLister());
+        }
+
+        @Override
+        public void makeRemoteDirectory(String path) throws IOException {
+            String remotePath = DirectorySync.remotePath(remoteRoot, path);
+            invalidateManifest(remotePath);
+            try {
+                sftpChannel.mkdir(remotePath);
+            } catch (SftpException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void upload(File localFile, String path, long modifiedTime) throws IOException {
+            String remoteFilePath = DirectorySync.remotePath(remoteRoot, path);
+            invalidateManifest(remoteFilePath);
+            try (InputStream inputStream = LocalFileChannels.openInput(localFile)) {
+                sftpChannel.put(inputStream, remoteFilePath, ChannelSftp.OVERWRITE);
+                sftpChannel.setMtime(remoteFilePath, (int) (modifiedTime / 1000));
+            } catch (SftpException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void download(String path, File localFile, long modifiedTime) throws IOException {
+            localFile.getParentFile().mkdirs();
+            try {
+                getToLocalFile(sftpChannel, DirectorySync.remotePath(remoteRoot, path), localFile);
+            } catch (SftpException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            localFile.setLastModified(modifiedTime);
+        }
+
+        @Override
+        public void deleteRemote(RemoteFileEntry entry) throws IOException {
+            String remotePath = DirectorySync.remotePath(remoteRoot, entry.getPath());
+            invalidateManifest(remotePath);
+            metadataCache.invalidate(remotePath);
+            try {
+                if (entry.isDirectory()) {
+                    sftpChannel.rmdir(remotePath);
+                } else {
+                    sftpChannel.rm(remotePath);
+                }
+            } catch (SftpException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * This method is used to rename the file present on local machine
      *
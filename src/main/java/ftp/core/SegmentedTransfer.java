@@ -0,0 +1,71 @@
+package ftp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * SegmentedTransfer class - helper methods used to move one large file as several byte ranges at once.
+ */
+class SegmentedTransfer {
+
+    static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // Marker put on a segment queue to tell a worker that no more segments will arrive.
+    static final long[] END_OF_QUEUE = new long[0];
+
+    private SegmentedTransfer() {
+    }
+
+    /**
+     * This method is used to split a file into ranges of segmentSize bytes, followed by one end of queue
+     * marker for every worker.
+     *
+     * @param fileSize - total size of the file.
+     * @param segmentSize - size of every range, the last one can be smaller.
+     * @param workers - number of workers that drain the queue.
+     * @return [BlockingQueue] - queue of {offset, length} pairs.
+     */
+    static BlockingQueue<long[]> planSegments(long fileSize, long segmentSize, int workers) {
+        long size = segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+        BlockingQueue<long[]> queue = new LinkedBlockingQueue<>();
+        for (long offset = 0; offset < fileSize; offset += size) {
+            queue.add(new long[]{offset, Math.min(size, fileSize - offset)});
+        }
+        for (int i = 0; i < workers; i++) {
+            queue.add(END_OF_QUEUE);
+        }
+        return queue;
+    }
+
+    /**
+     * This method is used to copy exactly `length` bytes from the stream into the file, starting at `position`.
+     * Positional writes are used, so several threads can fill different ranges of the same channel.
+     *
+     * @param inputStream - stream positioned at the start of the range.
+     * @param fileChannel - local file, already sized to hold the whole file.
+     * @param position - offset of the range in the file.
+     * @param length - number of bytes in the range.
+     * @throws IOException - if the stream ends before the range is complete.
+     */
+    static void copyRange(InputStream inputStream, FileChannel fileChannel, long position, long length) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long remaining = length;
+        long writePosition = position;
+        while (remaining > 0) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Stream ended " + remaining + " bytes before the end of segment at " + position);
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining()) {
+                writePosition += fileChannel.write(byteBuffer, writePosition);
+            }
+            remaining -= read;
+        }
+    }
+}
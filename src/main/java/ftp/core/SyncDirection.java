@@ -0,0 +1,11 @@
+package ftp.core;
+
+/**
+ * SyncDirection enum - which side of a sync is the source of truth.
+ */
+public enum SyncDirection {
+    // Local directory is copied onto the remote directory.
+    PUSH,
+    // Remote directory is copied onto the local directory.
+    PULL
+}
@@ -0,0 +1,151 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * TransferJournal class - a small on-disk checkpoint file, that records how many bytes of every file
+ * have been committed on the receiving side. It is used by the resumable transfer methods, so that a
+ * restarted batch skips the files that are already complete and resumes the partial ones.
+ *
+ * Every entry is stored as "committedBytes/totalBytes/state", where state is "partial" or "done".
+ */
+public class TransferJournal {
+
+    private static final Logger logger = LogManager.getLogger(TransferJournal.class);
+    private static final String PARTIAL = "partial";
+    private static final String DONE = "done";
+    // Progress is written to disk at most once per this many bytes, or when the file completes.
+    private static final long SAVE_INTERVAL_BYTES = 8L * 1024 * 1024;
+
+    private final File journalFile;
+    private final Properties entries = new Properties();
+    private long unsavedBytes = 0;
+
+    /**
+     * @param journalFile - the journal file, it is loaded if it already exists.
+     * @throws FTPClientException - if the existing journal can not be read.
+     */
+    public TransferJournal(File journalFile) throws FTPClientException {
+        this.journalFile = journalFile;
+        if (journalFile.exists()) {
+            try (InputStream inputStream = new FileInputStream(journalFile)) {
+                entries.load(inputStream);
+            } catch (IOException e) {
+                throw new FTPClientException(e);
+            }
+        }
+    }
+
+    public static String uploadKey(String localPath, String remotePath) {
+        return "put|" + localPath + "|" + normalizeRemotePath(remotePath);
+    }
+
+    public static String downloadKey(String remotePath, String localPath) {
+        return "get|" + normalizeRemotePath(remotePath) + "|" + localPath;
+    }
+
+    /**
+     * This method is used to give one key to the same remote file, eg: "//foo1.txt" when it is built from
+     * the remote directory "/" is the same file as "/foo1.txt".
+     */
+    private static String normalizeRemotePath(String remotePath) {
+        String path = remotePath.replaceAll("/{2,}", "/");
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    public synchronized boolean hasEntry(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @param key - key of the transfer.
+     * @param totalBytes - current size of the source file.
+     * @return [boolean] - true if the transfer was completed for a source of the same size.
+     */
+    public synchronized boolean isComplete(String key, long totalBytes) {
+        String[] entry = getEntry(key);
+        return entry != null && DONE.equals(entry[2]) && Long.parseLong(entry[1]) == totalBytes;
+    }
+
+    /**
+     * @param key - key of the transfer.
+     * @return [long] - the committed bytes recorded for the transfer, 0 if there is no entry.
+     */
+    public synchronized long getCommittedBytes(String key) {
+        String[] entry = getEntry(key);
+        return entry == null ? 0 : Long.parseLong(entry[0]);
+    }
+
+    /**
+     * This method is used to record that a transfer has committed `committedBytes` on the receiving side.
+     *
+     * @param key - key of the transfer.
+     * @param committedBytes - bytes committed so far.
+     * @param totalBytes - size of the source file.
+     */
+    public synchronized void recordProgress(String key, long committedBytes, long totalBytes) {
+        long previous = getCommittedBytes(key);
+        entries.setProperty(key, committedBytes + "/" + totalBytes + "/" + PARTIAL);
+        unsavedBytes += Math.max(0, committedBytes - previous);
+        if (unsavedBytes >= SAVE_INTERVAL_BYTES || !journalFile.exists()) {
+            save();
+        }
+    }
+
+    /**
+     * This method is used to record that a transfer is complete.
+     *
+     * @param key - key of the transfer.
+     * @param totalBytes - size of the source file.
+     */
+    public synchronized void markComplete(String key, long totalBytes) {
+        entries.setProperty(key, totalBytes + "/" + totalBytes + "/" + DONE);
+        save();
+    }
+
+    public synchronized void remove(String key) {
+        entries.remove(key);
+        save();
+    }
+
+    /**
+     * This method is used to write the journal to disk. It writes a temporary file first and moves it
+     * over the journal, so a crash never leaves a half written journal behind.
+     */
+    public synchronized void save() {
+        File tempFile = new File(journalFile.getAbsolutePath() + ".tmp");
+        try {
+            File parentDir = journalFile.getAbsoluteFile().getParentFile();
+            if (!parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+            try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                entries.store(outputStream, "FTP-Client transfer journal");
+            }
+            Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            unsavedBytes = 0;
+        } catch (IOException e) {
+            logger.error("Error while saving transfer journal : [" + e.getMessage() + "]");
+        }
+    }
+
+    private String[] getEntry(String key) {
+        String value = entries.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        String[] entry = value.split("/");
+        return entry.length == 3 ? entry : null;
+    }
+}
@@ -0,0 +1,199 @@
+package ftp.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * TransferProfile class - a named set of socket and buffer settings, that is applied to a connection
+ * before it talks to the server.
+ *
+ * Three profiles are built in: "lan-10g", "wan-high-latency" and "constrained". A host picks its profile
+ * in connection_details.properties, and any profile can be defined or overridden there:
+ *
+ *   host.[hostname].profile=wan-high-latency
+ *   host.[hostname].ftp.port=2121
+ *   host.[hostname].sftp.port=2222
+ *   profile.[name].sendBufferSize=16777216
+ *   profile.[name].receiveBufferSize=16777216
+ *   profile.[name].copyBufferSize=1048576
+ *   profile.[name].tcpNoDelay=false
+ *   profile.[name].sshWindowSize=33554432
+ *   profile.[name].sshMaxPacketSize=32768
+ *   profile.[name].sftpOutstandingRequests=64
+ *
+ * A value of 0 keeps the default of the operating system or of the library.
+ */
+public class TransferProfile {
+
+    private static final Logger logger = LogManager.getLogger(TransferProfile.class);
+    private static final String PROPERTIES_FILE = "/connection_details.properties";
+
+    public static final TransferProfile DEFAULT = new TransferProfile("default", 0, 0, 0, false, 0, 0, 0);
+    // Short round trips and plenty of bandwidth: large buffers, and no waiting on small control packets.
+    public static final TransferProfile LAN_10G = new TransferProfile("lan-10g",
+            4 * 1024 * 1024, 4 * 1024 * 1024, 1024 * 1024, true, 16 * 1024 * 1024, 64 * 1024, 64);
+    // The buffers and the SSH window must hold the bandwidth-delay product, eg: 1 Gbit/s * 120 ms = 15 MB.
+    public static final TransferProfile WAN_HIGH_LATENCY = new TransferProfile("wan-high-latency",
+            16 * 1024 * 1024, 16 * 1024 * 1024, 1024 * 1024, false, 32 * 1024 * 1024, 32 * 1024, 256);
+    public static final TransferProfile CONSTRAINED = new TransferProfile("constrained",
+            64 * 1024, 64 * 1024, 32 * 1024, false, 256 * 1024, 16 * 1024, 8);
+
+    private static Properties settings;
+
+    private final String name;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int copyBufferSize;
+    private final boolean tcpNoDelay;
+    private final int sshWindowSize;
+    private final int sshMaxPacketSize;
+    private final int sftpOutstandingRequests;
+
+    /**
+     * @param name - name of the profile.
+     * @param sendBufferSize - SO_SNDBUF of the sockets.
+     * @param receiveBufferSize - SO_RCVBUF of the sockets.
+     * @param copyBufferSize - buffer used to copy a file between the socket and the local stream.
+     * @param tcpNoDelay - true to disable Nagle's algorithm on the control connection.
+     * @param sshWindowSize - SSH channel window, the number of bytes the server may send before it waits.
+     * @param sshMaxPacketSize - largest SSH channel packet the server may send.
+     * @param sftpOutstandingRequests - number of SFTP read or write requests kept in flight on a channel.
+     */
+    public TransferProfile(String name, int sendBufferSize, int receiveBufferSize, int copyBufferSize,
+                           boolean tcpNoDelay, int sshWindowSize, int sshMaxPacketSize, int sftpOutstandingRequests) {
+        this.name = name;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.copyBufferSize = copyBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sshWindowSize = sshWindowSize;
+        this.sshMaxPacketSize = sshMaxPacketSize;
+        this.sftpOutstandingRequests = sftpOutstandingRequests;
+    }
+
+    /**
+     * This method is used to find a profile by name. Values from connection_details.properties override
+     * the built in values of the profile with the same name.
+     *
+     * @param name - name of the profile.
+     * @return [TransferProfile] - the profile, or DEFAULT if the name is unknown.
+     */
+    public static TransferProfile forName(String name) {
+        TransferProfile base = builtIn(name);
+        Properties properties = getSettings();
+        String prefix = "profile." + name + ".";
+        if (base == null) {
+            if (properties.stringPropertyNames().stream().noneMatch(key -> key.startsWith(prefix))) {
+                logger.info("Unknown transfer profile [" + name + "], using the default profile");
+                return DEFAULT;
+            }
+            base = DEFAULT;
+        }
+        try {
+            return new TransferProfile(name,
+                    intSetting(properties, prefix + "sendBufferSize", base.sendBufferSize),
+                    intSetting(properties, prefix + "receiveBufferSize", base.receiveBufferSize),
+                    intSetting(properties, prefix + "copyBufferSize", base.copyBufferSize),
+                    Boolean.parseBoolean(properties.getProperty(prefix + "tcpNoDelay", String.valueOf(base.tcpNoDelay)).trim()),
+                    intSetting(properties, prefix + "sshWindowSize", base.sshWindowSize),
+                    intSetting(properties, prefix + "sshMaxPacketSize", base.sshMaxPacketSize),
+                    intSetting(properties, prefix + "sftpOutstandingRequests", base.sftpOutstandingRequests));
+        } catch (NumberFormatException e) {
+            logger.error("Invalid value in transfer profile [" + name + "] : " + e.getMessage());
+            return base;
+        }
+    }
+
+    /**
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @return [TransferProfile] - the profile configured for the host, or DEFAULT.
+     */
+    public static TransferProfile forHost(String hostName) {
+        String profileName = getSettings().getProperty("host." + hostName + ".profile");
+        return profileName == null ? DEFAULT : forName(profileName.trim());
+    }
+
+    /**
+     * @param protocol - FTP or SFTP.
+     * @param hostName - eg: 127.0.0.1 (for localhost)
+     * @param defaultPort - port used when none is configured for the host.
+     * @return [int] - the port configured for the host and protocol.
+     */
+    public static int portForHost(String protocol, String hostName, int defaultPort) {
+        try {
+            return intSetting(getSettings(), "host." + hostName + "." + protocol.toLowerCase() + ".port", defaultPort);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid port configured for [" + hostName + "], using " + defaultPort);
+            return defaultPort;
+        }
+    }
+
+    private static TransferProfile builtIn(String name) {
+        for (TransferProfile profile : new TransferProfile[]{DEFAULT, LAN_10G, WAN_HIGH_LATENCY, CONSTRAINED}) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private static int intSetting(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static synchronized Properties getSettings() {
+        if (settings == null) {
+            settings = new Properties();
+            try (InputStream inputStream = TransferProfile.class.getResourceAsStream(PROPERTIES_FILE)) {
+                if (inputStream != null) {
+                    settings.load(inputStream);
+                }
+            } catch (IOException e) {
+                logger.error("Error while reading transfer profiles : " + e.getMessage());
+            }
+        }
+        return settings;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public int getCopyBufferSize() {
+        return copyBufferSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getSshWindowSize() {
+        return sshWindowSize;
+    }
+
+    public int getSshMaxPacketSize() {
+        return sshMaxPacketSize;
+    }
+
+    public int getSftpOutstandingRequests() {
+        return sftpOutstandingRequests;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,89 @@
+package ftp.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TransferSummary class - collects the outcome of a bulk transfer, that is run by several workers at once.
+ * All the methods are thread safe.
+ */
+public class TransferSummary {
+
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime = 0;
+    private final AtomicInteger filesTransferred = new AtomicInteger();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    /**
+     * This method is used to record a file that was transferred successfully.
+     *
+     * @param bytes - size of the transferred file.
+     */
+    public void recordSuccess(long bytes) {
+        filesTransferred.incrementAndGet();
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    /**
+     * This method is used to record a file that could not be transferred.
+     *
+     * @param path - path of the file that failed.
+     * @param reason - why the transfer failed.
+     */
+    public void recordFailure(String path, String reason) {
+        failures.put(path, reason == null ? "unknown error" : reason);
+    }
+
+    /**
+     * This method is used to mark the end of the transfer, so that the throughput can be calculated.
+     */
+    public void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public int getFilesTransferred() {
+        return filesTransferred.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        return Math.max(1, end - startTime);
+    }
+
+    /**
+     * @return [double] - aggregate throughput in bytes per second.
+     */
+    public double getThroughput() {
+        return bytesTransferred.get() * 1000.0 / getElapsedMillis();
+    }
+
+    /**
+     * This method is used to print the result of the transfer on console.
+     */
+    public void printSummary() {
+        System.out.println(String.format("Transferred %d file(s), %d bytes in %.2f s (%.2f KB/s)",
+                getFilesTransferred(), getBytesTransferred(), getElapsedMillis() / 1000.0, getThroughput() / 1024));
+        if (!failures.isEmpty()) {
+            System.out.println("-- " + failures.size() + " file(s) failed --");
+            for (Map.Entry<String, String> failure : failures.entrySet()) {
+                System.out.println(failure.getKey() + " : " + failure.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ftp.core;
+
+/**
+ * TransferTask class - a single file that is queued for transfer between local machine and remote server.
+ */
+class TransferTask {
+
+    // Marker put on a work queue to tell a worker that no more tasks will arrive.
+    static final TransferTask END_OF_QUEUE = new TransferTask(null, null, -1);
+
+    private final String localPath;
+    private final String remotePath;
+    private final long size;
+
+    TransferTask(String localPath, String remotePath, long size) {
+        this.localPath = localPath;
+        this.remotePath = remotePath;
+        this.size = size;
+    }
+
+    String getLocalPath() {
+        return localPath;
+    }
+
+    String getRemotePath() {
+        return remotePath;
+    }
+
+    long getSize() {
+        return size;
+    }
+}
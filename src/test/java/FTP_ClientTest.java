@@ -1,4 +1,5 @@
 import ftp.core.*;
+import com.google.common.base.Strings;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -9,7 +10,14 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -197,6 +205,165 @@ public class FTP_ClientTest {
         }
     }
 
+    @Test
+    public void uploadAndDownloadMappedFile_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/mapped.bin");
+        // Larger than the memory mapped read threshold, and not a multiple of the direct buffer size.
+        byte[] content = new byte[65 * 1024 * 1024 + 17];
+        new java.util.Random(11).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        ftpRemoteConnection.uploadSingleFile(localFile.getPath(), "/");
+        File downloaded = new File(curDir + "/test/mapped.bin");
+        assertTrue(ftpRemoteConnection.downloadSingleFile(downloaded.getPath(), "/mapped.bin"));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(downloaded));
+        ftpRemoteConnection.deleteFile("/mapped.bin");
+        FileUtils.deleteDirectory(new File(curDir + "/test"));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void downloadSingleFileSegmented_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/segmented.bin");
+        byte[] content = new byte[300 * 1024];
+        new java.util.Random(7).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        ftpRemoteConnection.uploadSingleFile(localFile.getPath(), "/");
+        File downloaded = new File(curDir + "/test/segmented.bin");
+        TransferSummary summary = ((FTPConnection) ftpRemoteConnection).downloadSingleFileSegmented(downloaded.getPath(), "/segmented.bin", 3, 64 * 1024);
+        assertTrue(summary.isSuccessful());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(downloaded));
+        ftpRemoteConnection.deleteFile("/segmented.bin");
+        FileUtils.deleteDirectory(new File(curDir + "/test"));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void transferDirectoryFxp_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/fxpSource";
+        FileUtils.forceMkdir(new File(testDir + "/sub"));
+        FileUtils.writeStringToFile(new File(testDir + "/sub/a.txt"), "fxp", "UTF-8");
+        ftpRemoteConnection.uploadDirectory(testDir, "/");
+        // Both ends are the same test server, which still exercises PASV on one connection and PORT on the other.
+        FTPConnection connection = (FTPConnection) ftpRemoteConnection;
+        TransferSummary summary = connection.transferDirectoryFxp("/fxpSource", connection, "/fxpTarget", 2);
+        assertTrue(summary.isSuccessful());
+        assertEquals(3, summary.getBytesTransferred());
+        assertTrue(ftpRemoteConnection.checkFileExists("/fxpTarget/sub/a.txt"));
+        ftpRemoteConnection.deleteDirectory("/fxpSource");
+        ftpRemoteConnection.deleteDirectory("/fxpTarget");
+        FileUtils.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void downloadSingleFileSegmented_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/segmented.bin");
+        byte[] content = new byte[300 * 1024];
+        new java.util.Random(7).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        sftpRemoteConnection.uploadSingleFile(localFile.getPath(), "/");
+        String testDir = curDir + "/test";
+        TransferSummary summary = ((SFTPConnection) sftpRemoteConnection).downloadSingleFileSegmented(testDir, "/segmented.bin", 3, 64 * 1024);
+        assertTrue(summary.isSuccessful());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(testDir + "/segmented.bin")));
+        sftpRemoteConnection.deleteFile("/segmented.bin");
+        FileUtils.deleteDirectory(new File(testDir));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void uploadAndDownloadPipelined_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/pipelined.bin");
+        byte[] content = new byte[1024 * 1024 + 5];
+        new java.util.Random(13).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        SFTPConnection connection = (SFTPConnection) sftpRemoteConnection;
+        assertTrue(connection.uploadSingleFilePipelined(localFile.getPath(), "/", 64).isSuccessful());
+        TransferSummary summary = connection.downloadSingleFilePipelined(curDir + "/test", "/pipelined.bin", 64);
+        assertTrue(summary.isSuccessful());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(curDir + "/test/pipelined.bin")));
+        sftpRemoteConnection.deleteFile("/pipelined.bin");
+        FileUtils.deleteDirectory(new File(curDir + "/test"));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void uploadSingleFileDelta_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/delta.bin");
+        byte[] content = new byte[2 * 1024 * 1024];
+        new java.util.Random(17).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        sftpRemoteConnection.uploadSingleFile(localFile.getPath(), "/");
+        // Change a few bytes in the middle, the rest of the file can be rebuilt from the remote copy.
+        content[1024 * 1024] ^= 1;
+        FileUtils.writeByteArrayToFile(localFile, content);
+        TransferSummary summary = ((SFTPConnection) sftpRemoteConnection).uploadSingleFileDelta(localFile.getPath(), "/");
+        assertTrue(summary.isSuccessful());
+        sftpRemoteConnection.downloadSingleFile(curDir + "/test", "/delta.bin");
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(curDir + "/test/delta.bin")));
+        sftpRemoteConnection.deleteFile("/delta.bin");
+        FileUtils.deleteDirectory(new File(curDir + "/test"));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void uploadSingleFileSegmented_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/segmented.bin");
+        byte[] content = new byte[20 * 1024 * 1024 + 123];
+        new java.util.Random(11).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        TransferSummary summary = ((SFTPConnection) sftpRemoteConnection).uploadSingleFileSegmented(localFile.getPath(), "/", 3);
+        assertTrue(summary.isSuccessful());
+        assertFalse(sftpRemoteConnection.checkFileExists("/segmented.bin.part"));
+        String testDir = curDir + "/test";
+        sftpRemoteConnection.downloadSingleFile(testDir, "/segmented.bin");
+        assertArrayEquals(content, FileUtils.readFileToByteArray(new File(testDir + "/segmented.bin")));
+        sftpRemoteConnection.deleteFile("/segmented.bin");
+        FileUtils.deleteDirectory(new File(testDir));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void uploadMultipleFilesResumable_FTP() throws IOException, FTPClientException {
+        File journalFile = new File(System.getProperty("user.dir") + "/test-journal.properties");
+        TransferJournal journal = new TransferJournal(journalFile);
+        String[] localPaths = {localDummyFilePath1.toString(), localDummyFilePath2.toString()};
+        ftpRemoteConnection.uploadMultipleFilesResumable(localPaths, "/", journal);
+        assertTrue(journal.isComplete(TransferJournal.uploadKey(localDummyFilePath1.toString(), "/foo1.txt"), 0));
+        assertTrue(new TransferJournal(journalFile).isComplete(TransferJournal.uploadKey(localDummyFilePath2.toString(), "/foo2.txt"), 0));
+        assertTrue(ftpRemoteConnection.deleteFile("/foo1.txt"));
+        assertTrue(ftpRemoteConnection.deleteFile("/foo2.txt"));
+        FileUtils.forceDelete(journalFile);
+    }
+
+    @Test
+    public void downloadSingleFileResumable_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/resume.bin");
+        byte[] content = new byte[256 * 1024];
+        new java.util.Random(5).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        sftpRemoteConnection.uploadSingleFile(localFile.getPath(), "/");
+        String testDir = curDir + "/test";
+        File partial = new File(testDir + "/resume.bin");
+        FileUtils.writeByteArrayToFile(partial, java.util.Arrays.copyOf(content, 1000));
+        File journalFile = new File(curDir + "/test-journal.properties");
+        TransferJournal journal = new TransferJournal(journalFile);
+        journal.recordProgress(TransferJournal.downloadKey("/resume.bin", partial.getAbsolutePath()), 1000, content.length);
+        assertTrue(sftpRemoteConnection.downloadSingleFileResumable(testDir, "/resume.bin", journal));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(partial));
+        sftpRemoteConnection.deleteFile("/resume.bin");
+        FileUtils.deleteDirectory(new File(testDir));
+        FileUtils.forceDelete(localFile);
+        FileUtils.forceDelete(journalFile);
+    }
+
     @Test
     public void downloadNonExistentSingleFileFromRemote_SFTP() throws FTPClientException, IOException {
         assertFalse(sftpRemoteConnection.downloadSingleFile(localDummyFilePath.toString(), "/foo-non-existent-file.txt"));
@@ -305,6 +472,23 @@ public class FTP_ClientTest {
         FTPUtils.searchFile("foo.txt", currentPath.toFile());
     }
 
+    @Test
+    public void searchFilesLocallyRecursive() throws IOException {
+        File root = new File(System.getProperty("user.dir"), "localSearch");
+        FileUtils.writeStringToFile(new File(root, "a/b/c/deep.csv"), "1,2,3", "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "a/big.csv"), Strings.repeat("x", 4096), "UTF-8");
+        FileUtils.writeStringToFile(new File(root, "a/notes.txt"), "notes", "UTF-8");
+        List<Path> found = new ArrayList<>();
+        assertEquals(2, LocalFileSearch.search(root.toPath(), LocalFileSearch.matching(RemoteFileMatcher.glob("*.csv")), 0, found::add));
+        assertTrue(found.contains(new File(root, "a/b/c/deep.csv").toPath()));
+        assertEquals(1, LocalFileSearch.search(root.toPath(),
+                LocalFileSearch.matching(RemoteFileMatcher.glob("*.csv")).and(LocalFileSearch.sizeBetween(1024, Long.MAX_VALUE)), 0, path -> {}));
+        assertEquals(0, LocalFileSearch.search(root.toPath(), LocalFileSearch.modifiedBetween(0, 1000), 0, path -> {}));
+        assertEquals(1, LocalFileSearch.search(root.toPath(), (path, attributes) -> true, 1, path -> {}));
+        assertEquals(1, FTPUtils.searchFile("deep.csv", root));
+        FileUtils.deleteDirectory(root);
+    }
+
     @Test
     public void renameRemoteFileOldExistNewDoesntExist_FTP() throws FTPClientException, IOException {
         ftpRemoteConnection.uploadSingleFile(localDummyFilePath.toString(), "/");
@@ -359,6 +543,25 @@ public class FTP_ClientTest {
         FileUtils.deleteDirectory(new File(testDir));
     }
 
+    @Test
+    public void downloadDirectoryParallel_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/test";
+        String saveDir = curDir + "/parallelDownload";
+        FileUtils.forceMkdir(new File(testDir));
+        FileUtils.touch(new File(testDir + "/a.txt"));
+        FileUtils.touch(new File(testDir + "/b.txt"));
+        ftpRemoteConnection.createNewDirectory("/test");
+        ftpRemoteConnection.uploadDirectory(testDir, "/test");
+        TransferSummary summary = ((FTPConnection) ftpRemoteConnection).downloadDirectoryParallel("/test", saveDir, 2);
+        assertTrue(summary.isSuccessful());
+        assertEquals(2, summary.getFilesTransferred());
+        assertTrue(new File(saveDir + "/b.txt").exists());
+        ftpRemoteConnection.deleteDirectory("/test");
+        FileUtils.deleteDirectory(new File(testDir));
+        FileUtils.deleteDirectory(new File(saveDir));
+    }
+
     @Test
     public void copyRemoteDirDoesntExist_FTP() throws FTPClientException, IOException {
         assertFalse(ftpRemoteConnection.copyDirectory("/test-I-hope-doesnt-exist", "/copyTest"));
@@ -378,6 +581,273 @@ public class FTP_ClientTest {
         FileUtils.deleteDirectory(new File(testDir));
     }
 
+    @Test
+    public void uploadDirectoryParallel_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/parallelUpload";
+        FileUtils.forceMkdir(new File(testDir + "/sub"));
+        FileUtils.touch(new File(testDir + "/a.txt"));
+        FileUtils.touch(new File(testDir + "/sub/b.txt"));
+        TransferSummary summary = ((SFTPConnection) sftpRemoteConnection).uploadDirectoryParallel(testDir, "/", 3);
+        assertTrue(summary.isSuccessful());
+        assertEquals(2, summary.getFilesTransferred());
+        assertTrue(sftpRemoteConnection.checkFileExists("/parallelUpload/sub/b.txt"));
+        sftpRemoteConnection.deleteDirectory("/parallelUpload");
+        FileUtils.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void copyDirectoryStreamed_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/streamCopy";
+        FileUtils.forceMkdir(new File(testDir + "/sub"));
+        FileUtils.writeStringToFile(new File(testDir + "/sub/a.txt"), "streamed", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(testDir, "/");
+        TransferSummary summary = sftpRemoteConnection.copyDirectoryStreamed("/streamCopy", "/streamCopyDes", 2);
+        assertTrue(summary.isSuccessful());
+        assertEquals(8, summary.getBytesTransferred());
+        assertTrue(sftpRemoteConnection.checkFileExists("/streamCopyDes/sub/a.txt"));
+        sftpRemoteConnection.deleteDirectory("/streamCopy");
+        sftpRemoteConnection.deleteDirectory("/streamCopyDes");
+        FileUtils.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void copyDirectoryWithQuoteInName_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/it's copy";
+        FileUtils.forceMkdir(new File(testDir + "/sub"));
+        FileUtils.writeStringToFile(new File(testDir + "/sub/a.txt"), "server side", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(testDir, "/");
+        assertTrue(sftpRemoteConnection.copyDirectory("/it's copy", "/it's copyDes"));
+        assertTrue(sftpRemoteConnection.checkFileExists("/it's copyDes/sub/a.txt"));
+        sftpRemoteConnection.deleteDirectory("/it's copy");
+        sftpRemoteConnection.deleteDirectory("/it's copyDes");
+        FileUtils.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void syncPushIsIncremental_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String testDir = curDir + "/syncSource";
+        FileUtils.forceMkdir(new File(testDir + "/sub"));
+        FileUtils.writeStringToFile(new File(testDir + "/a.txt"), "first", "UTF-8");
+        FileUtils.writeStringToFile(new File(testDir + "/sub/b.txt"), "second", "UTF-8");
+        TransferSummary first = ftpRemoteConnection.sync(testDir, "/syncTarget", SyncDirection.PUSH, false, false);
+        assertTrue(first.isSuccessful());
+        assertEquals(2, first.getFilesTransferred());
+        FileUtils.writeStringToFile(new File(testDir + "/a.txt"), "first, changed", "UTF-8");
+        TransferSummary second = ftpRemoteConnection.sync(testDir, "/syncTarget", SyncDirection.PUSH, false, false);
+        assertEquals(1, second.getFilesTransferred());
+        ftpRemoteConnection.deleteDirectory("/syncTarget");
+        FileUtils.deleteDirectory(new File(testDir));
+    }
+
+    @Test
+    public void syncPullDeletesExtraneous_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/syncRemote";
+        FileUtils.forceMkdir(new File(sourceDir + "/sub"));
+        FileUtils.writeStringToFile(new File(sourceDir + "/sub/b.txt"), "remote", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        String localDir = curDir + "/syncLocal";
+        FileUtils.writeStringToFile(new File(localDir + "/stale.txt"), "stale", "UTF-8");
+        TransferSummary dryRun = sftpRemoteConnection.sync(localDir, "/syncRemote", SyncDirection.PULL, true, true);
+        assertEquals(1, dryRun.getFilesTransferred());
+        assertTrue(new File(localDir + "/stale.txt").exists());
+        TransferSummary summary = sftpRemoteConnection.sync(localDir, "/syncRemote", SyncDirection.PULL, true, false);
+        assertTrue(summary.isSuccessful());
+        assertFalse(new File(localDir + "/stale.txt").exists());
+        assertEquals("remote", FileUtils.readFileToString(new File(localDir + "/sub/b.txt"), "UTF-8"));
+        assertEquals(0, sftpRemoteConnection.sync(localDir, "/syncRemote", SyncDirection.PULL, true, false).getFilesTransferred());
+        sftpRemoteConnection.deleteDirectory("/syncRemote");
+        FileUtils.deleteDirectory(new File(sourceDir));
+        FileUtils.deleteDirectory(new File(localDir));
+    }
+
+    @Test
+    public void remoteTreeManifestSeesNewFiles_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/manifestTree";
+        FileUtils.writeStringToFile(new File(sourceDir + "/sub/a.txt"), "a", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        File manifestFile = new File(curDir + "/manifest.json");
+        sftpRemoteConnection.setRemoteTreeManifest(new RemoteTreeManifest(manifestFile));
+        assertTrue(sftpRemoteConnection.listRemoteTree("/manifestTree").containsKey("sub/a.txt"));
+        assertTrue(manifestFile.exists());
+        FileUtils.writeStringToFile(new File(curDir + "/b.txt"), "b", "UTF-8");
+        sftpRemoteConnection.uploadSingleFile(curDir + "/b.txt", "/manifestTree/sub");
+        RemoteTreeManifest reloaded = new RemoteTreeManifest(manifestFile);
+        sftpRemoteConnection.setRemoteTreeManifest(reloaded);
+        assertNotNull(reloaded.getEtag("/manifestTree/sub"));
+        assertTrue(sftpRemoteConnection.listRemoteTree("/manifestTree").containsKey("sub/b.txt"));
+        // searchTree reads the tree from the manifest as well.
+        List<RemoteFileEntry> found = new ArrayList<>();
+        assertEquals(1, sftpRemoteConnection.searchTree("/manifestTree", RemoteFileMatcher.glob("b.txt"), -1, 0, found::add));
+        assertEquals("/manifestTree/sub/b.txt", found.get(0).getPath());
+        sftpRemoteConnection.setRemoteTreeManifest(null);
+        sftpRemoteConnection.deleteDirectory("/manifestTree");
+        FileUtils.deleteDirectory(new File(sourceDir));
+        FileUtils.deleteQuietly(new File(curDir + "/b.txt"));
+        FileUtils.deleteQuietly(manifestFile);
+    }
+
+    @Test
+    public void metadataCacheSkipsRepeatedChecks_FTP() throws IOException, FTPClientException {
+        RemoteMetadataCache metadataCache = new RemoteMetadataCache();
+        ftpRemoteConnection.setMetadataCache(metadataCache);
+        ftpRemoteConnection.createNewDirectory("/metadataCache");
+        String curDir = System.getProperty("user.dir");
+        String[] localPaths = {curDir + "/cache1.txt", curDir + "/cache2.txt", curDir + "/cache3.txt"};
+        for (String localPath : localPaths) {
+            FileUtils.writeStringToFile(new File(localPath), "cache", "UTF-8");
+        }
+        ftpRemoteConnection.uploadMultipleFiles(localPaths, "/metadataCache");
+        assertTrue(metadataCache.getHitCount() >= 3);
+        assertTrue(ftpRemoteConnection.checkFileExists("/metadataCache/cache1.txt"));
+        ftpRemoteConnection.deleteDirectory("/metadataCache");
+        assertFalse(ftpRemoteConnection.checkRemoteDirectoryExists("/metadataCache"));
+        assertFalse(ftpRemoteConnection.checkFileExists("/metadataCache/cache1.txt"));
+        ftpRemoteConnection.setMetadataCache(new RemoteMetadataCache());
+        for (String localPath : localPaths) {
+            FileUtils.deleteQuietly(new File(localPath));
+        }
+    }
+
+    @Test
+    public void listingMatchesServerFeatures_FTP() throws IOException, FTPClientException {
+        ftpRemoteConnection.setMetadataCache(new RemoteMetadataCache(0, 0));
+        ftpRemoteConnection.createNewDirectory("/featureListing");
+        String curDir = System.getProperty("user.dir");
+        FileUtils.writeStringToFile(new File(curDir + "/feature.txt"), "feature", "UTF-8");
+        ftpRemoteConnection.uploadSingleFile(curDir + "/feature.txt", "/featureListing");
+        Map<String, RemoteFileEntry> tree = ftpRemoteConnection.listRemoteTree("/featureListing");
+        assertEquals(1, tree.size());
+        assertEquals(((FTPConnection) ftpRemoteConnection).hasServerFeature("MLST"),
+                tree.get("feature.txt").getModifiedTime() != RemoteFileEntry.UNKNOWN_TIME);
+        assertTrue(ftpRemoteConnection.checkRemoteDirectoryExists("/featureListing"));
+        assertFalse(ftpRemoteConnection.checkRemoteDirectoryExists("/featureListing/feature.txt"));
+        ftpRemoteConnection.deleteDirectory("/featureListing");
+        ftpRemoteConnection.setMetadataCache(new RemoteMetadataCache());
+        FileUtils.deleteQuietly(new File(curDir + "/feature.txt"));
+    }
+
+    @Test
+    public void streamDirectoryStopsEarly_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/streamed";
+        for (int i = 0; i < 5; i++) {
+            FileUtils.writeStringToFile(new File(sourceDir + "/file" + i + ".txt"), "streamed", "UTF-8");
+        }
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        int[] visited = {0};
+        assertTrue(sftpRemoteConnection.streamDirectory("/streamed", entry -> ++visited[0] < 2));
+        assertEquals(2, visited[0]);
+        visited[0] = 0;
+        assertTrue(sftpRemoteConnection.streamDirectory("/streamed", entry -> {
+            visited[0]++;
+            return true;
+        }));
+        assertEquals(5, visited[0]);
+        assertFalse(sftpRemoteConnection.streamDirectory("/streamed_does_not_exist", entry -> true));
+        sftpRemoteConnection.deleteDirectory("/streamed");
+        FileUtils.deleteDirectory(new File(sourceDir));
+    }
+
+    @Test
+    public void remoteFileMatcherGlobAndRegex() {
+        assertTrue(RemoteFileMatcher.glob("*.log").matches("a/b/server.log", false));
+        assertFalse(RemoteFileMatcher.glob("*.log").matches("a/b/server.log.gz", false));
+        assertTrue(RemoteFileMatcher.glob("**/logs/app-?.{log,gz}").matches("logs/app-1.gz", false));
+        assertTrue(RemoteFileMatcher.glob("**/logs/app-?.{log,gz}").matches("x/y/logs/app-2.log", false));
+        assertFalse(RemoteFileMatcher.glob("logs/*.log").matches("logs/old/app.log", false));
+        assertTrue(RemoteFileMatcher.regex("^error-\\d+").matches("logs/error-42.txt", false));
+        assertFalse(RemoteFileMatcher.extension("txt").matches("dir.txt", true));
+    }
+
+    @Test
+    public void searchTreeWithDepthAndLimit_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/searchTree";
+        FileUtils.writeStringToFile(new File(sourceDir + "/a.log"), "log", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/one/b.log"), "log", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/one/two/c.log"), "log", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/one/two/c.txt"), "txt", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        List<String> found = new ArrayList<>();
+        int count = sftpRemoteConnection.searchTree("/searchTree", RemoteFileMatcher.glob("*.log"), -1, 0, entry -> found.add(entry.getPath()));
+        assertEquals(3, count);
+        assertTrue(found.contains("/searchTree/one/two/c.log"));
+        assertEquals(2, sftpRemoteConnection.searchTree("/searchTree", RemoteFileMatcher.glob("*.log"), 1, 0, entry -> true));
+        assertEquals(1, sftpRemoteConnection.searchTree("/searchTree", RemoteFileMatcher.glob("*.log"), -1, 1, entry -> true));
+        sftpRemoteConnection.deleteDirectory("/searchTree");
+        FileUtils.deleteDirectory(new File(sourceDir));
+    }
+
+    @Test
+    public void deleteDirectoryParallel_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/bulkDelete";
+        for (int i = 0; i < 20; i++) {
+            FileUtils.writeStringToFile(new File(sourceDir + "/level" + (i % 3) + "/nested/file" + i + ".txt"), "delete me", "UTF-8");
+        }
+        ftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        TransferSummary summary = ftpRemoteConnection.deleteDirectoryParallel("/bulkDelete", 3);
+        assertTrue(summary.isSuccessful());
+        assertEquals(20, summary.getFilesTransferred());
+        assertFalse(ftpRemoteConnection.checkRemoteDirectoryExists("/bulkDelete"));
+        assertFalse(ftpRemoteConnection.deleteDirectoryParallel("/bulkDelete", 3).isSuccessful());
+        ftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        assertEquals(20, ftpRemoteConnection.deleteDirectoryParallel("/bulkDelete", 0).getFilesTransferred());
+        FileUtils.deleteDirectory(new File(sourceDir));
+    }
+
+    @Test
+    public void renameRemoteFilesInBatch_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/rotation";
+        FileUtils.writeStringToFile(new File(sourceDir + "/app.log.1"), "one", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/app.log.2"), "two", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/server.log"), "server", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/archive/keep.txt"), "keep", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        Map<String, String> renames = new LinkedHashMap<>();
+        renames.put("/rotation/app.log.1", "/rotation/app.log.2");
+        renames.put("/rotation/app.log.2", "/rotation/app.log.3");
+        renames.put("/rotation/missing.log", "/rotation/other.log");
+        TransferSummary summary = sftpRemoteConnection.renameRemoteFiles(renames);
+        assertEquals(2, summary.getFilesTransferred());
+        assertEquals(1, summary.getFailures().size());
+        assertTrue(sftpRemoteConnection.checkFileExists("/rotation/app.log.3"));
+        summary = sftpRemoteConnection.renameRemoteFiles("/rotation", "^(.*)\\.log$", "archive/$1.old");
+        assertTrue(summary.isSuccessful());
+        assertTrue(sftpRemoteConnection.checkFileExists("/rotation/archive/server.old"));
+        sftpRemoteConnection.deleteDirectory("/rotation");
+        FileUtils.deleteDirectory(new File(sourceDir));
+    }
+
+    @Test
+    public void remoteFileIndexAnswersFromDisk_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        String sourceDir = curDir + "/indexed";
+        FileUtils.writeStringToFile(new File(sourceDir + "/logs/server-error.log"), "log", "UTF-8");
+        FileUtils.writeStringToFile(new File(sourceDir + "/readme.md"), "readme", "UTF-8");
+        sftpRemoteConnection.uploadDirectory(sourceDir, "/");
+        File indexFile = new File(curDir + "/remote-index.json");
+        RemoteFileIndex index = new RemoteFileIndex(indexFile);
+        index.refresh(sftpRemoteConnection, "/indexed");
+        RemoteFileIndex reloaded = new RemoteFileIndex(indexFile);
+        assertEquals(3, reloaded.size());
+        assertEquals("/indexed/logs/server-error.log", reloaded.searchKeyword("/indexed", "error").get(0).getPath());
+        assertEquals(1, reloaded.searchExtension("/indexed/logs", "log").size());
+        assertTrue(reloaded.searchKeyword("/elsewhere", "error").isEmpty());
+        assertEquals(1, reloaded.search(sftpRemoteConnection, "/indexed", "readme", 0).size());
+        sftpRemoteConnection.deleteDirectory("/indexed");
+        FileUtils.deleteDirectory(new File(sourceDir));
+        FileUtils.deleteQuietly(indexFile);
+        FileUtils.deleteQuietly(new File(indexFile.getPath() + ".manifest"));
+    }
+
     @Test
     public void copyRemoteDirDoesntExist_SFTP() throws FTPClientException, IOException {
         assertFalse(sftpRemoteConnection.copyDirectory("/test_I_hope_doesnt_exist", "/copyTest"));
@@ -425,6 +895,162 @@ public class FTP_ClientTest {
         sftpRemoteConnection.deleteFile("/foo.txt");
     }
 
+    @Test
+    public void compressedUploadAndDownload_FTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/export.csv");
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            csv.append(i).append(",customer-").append(i % 100).append(",2021-01-01,ok\n");
+        }
+        FileUtils.writeStringToFile(localFile, csv.toString(), "UTF-8");
+        RemoteConnection connection = getRemoteConnectionObject(ftpClientCredentials);
+        connection.setCompressionEnabled(true);
+        connection.uploadSingleFile(localFile.getPath(), "/");
+        File downloaded = new File(curDir + "/test/export.csv");
+        assertTrue(connection.downloadSingleFile(downloaded.getPath(), "/export.csv"));
+        assertEquals(csv.toString(), FileUtils.readFileToString(downloaded, "UTF-8"));
+        // Servers without MODE Z fall back to uncompressed transfers.
+        assertTrue(connection.getCompressionStats().getRatio() >= 1.0);
+        // Listings after a compressed transfer are not deflated.
+        List<RemoteFileEntry> entries = new ArrayList<>();
+        assertTrue(connection.streamDirectory("/", entries::add));
+        assertTrue(entries.stream().anyMatch(entry -> entry.getPath().equals("export.csv")));
+        connection.deleteFile("/export.csv");
+        connection.disconnect();
+        FileUtils.deleteDirectory(new File(curDir + "/test"));
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void compressedSession_SFTP() throws IOException, FTPClientException {
+        String curDir = System.getProperty("user.dir");
+        File localFile = new File(curDir + "/export.log");
+        FileUtils.writeStringToFile(localFile, com.google.common.base.Strings.repeat("INFO request served in 12 ms\n", 20000), "UTF-8");
+        RemoteConnection connection = remoteConnectionFactory.getInstance("SFTP");
+        connection.setCompressionEnabled(true);
+        connection.connect(sftpClientCredentials.getServer(), sftpClientCredentials.getUserName(),
+                sftpClientCredentials.getEk().getPasswordString());
+        connection.uploadSingleFile(localFile.getPath(), "/");
+        assertTrue(connection.checkFileExists("/export.log"));
+        assertTrue(connection.getCompressionStats().getRatio() > 1.0);
+        connection.deleteFile("/export.log");
+        connection.disconnect();
+        FileUtils.forceDelete(localFile);
+    }
+
+    @Test
+    public void isCompressible() {
+        assertTrue(FTPUtils.isCompressible("export.csv"));
+        assertTrue(FTPUtils.isCompressible("README"));
+        assertFalse(FTPUtils.isCompressible("archive.tar.GZ"));
+        assertFalse(FTPUtils.isCompressible("holiday.jpg"));
+    }
+
+    @Test
+    public void transferProfileForName() {
+        assertEquals(TransferProfile.WAN_HIGH_LATENCY.getSshWindowSize(), TransferProfile.forName("wan-high-latency").getSshWindowSize());
+        assertTrue(TransferProfile.forName("lan-10g").isTcpNoDelay());
+        assertEquals(TransferProfile.DEFAULT, TransferProfile.forName("no-such-profile"));
+    }
+
+    @Test
+    public void connectWithTransferProfile_SFTP() throws IOException, FTPClientException {
+        RemoteConnection connection = remoteConnectionFactory.getInstance("SFTP");
+        connection.setTransferProfile(TransferProfile.LAN_10G);
+        assertEquals(1, connection.connect(sftpClientCredentials.getServer(), sftpClientCredentials.getUserName(),
+                sftpClientCredentials.getEk().getPasswordString()));
+        connection.uploadSingleFile(localDummyFilePath.toString(), "/");
+        assertTrue(connection.checkFileExists("/foo.txt"));
+        assertTrue(connection.deleteFile("/foo.txt"));
+        connection.disconnect();
+    }
+
+    @Test
+    public void pooledConnectionsAreReusedAndIndependent_SFTP() throws FTPClientException {
+        RemoteConnectionPool pool = new RemoteConnectionPool(2, 60000, 5000);
+        String password = sftpClientCredentials.getEk().getPasswordString();
+        RemoteConnection first = pool.borrow("SFTP", sftpClientCredentials.getServer(), sftpClientCredentials.getUserName(), password);
+        RemoteConnection second = pool.borrow("SFTP", sftpClientCredentials.getServer(), sftpClientCredentials.getUserName(), password);
+        assertNotSame(first, second);
+        pool.release(second);
+        assertTrue(first.isConnected());
+        assertSame(second, pool.borrow("SFTP", sftpClientCredentials.getServer(), sftpClientCredentials.getUserName(), password));
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getIdleCount());
+        // An idle connection is never handed to a caller with another password.
+        assertThrows(FTPClientException.class, () -> pool.borrow("SFTP", sftpClientCredentials.getServer(),
+                sftpClientCredentials.getUserName(), password + "-wrong"));
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void asyncOperationsOverlap_SFTP() throws IOException {
+        String curDir = System.getProperty("user.dir");
+        String password = sftpClientCredentials.getEk().getPasswordString();
+        List<File> localFiles = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            File localFile = new File(curDir + "/async" + i + ".txt");
+            FileUtils.writeStringToFile(localFile, Strings.repeat("async ", 100), "UTF-8");
+            localFiles.add(localFile);
+        }
+        try (AsyncRemoteConnection async = new AsyncRemoteConnection("SFTP", sftpClientCredentials.getServer(),
+                sftpClientCredentials.getUserName(), password)) {
+            List<CompletableFuture<TransferSummary>> uploads = new ArrayList<>();
+            for (File localFile : localFiles) {
+                uploads.add(async.upload(localFile.getPath(), "/"));
+            }
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+            for (CompletableFuture<TransferSummary> upload : uploads) {
+                assertTrue(upload.join().isSuccessful());
+            }
+            Optional<RemoteFileEntry> stat = async.stat("/async0.txt").join();
+            assertTrue(stat.isPresent());
+            assertEquals(600, stat.get().getSize());
+            assertFalse(async.stat("/async_missing.txt").join().isPresent());
+            long listed = async.list("/").thenApply(entries -> entries.stream()
+                    .filter(entry -> entry.getPath().startsWith("async")).count()).join();
+            assertEquals(6, listed);
+            assertThrows(CompletionException.class, () -> async.list("/async_missing_dir").join());
+            List<CompletableFuture<TransferSummary>> deletes = new ArrayList<>();
+            for (File localFile : localFiles) {
+                deletes.add(async.delete("/" + localFile.getName()));
+            }
+            for (CompletableFuture<TransferSummary> delete : deletes) {
+                assertEquals(1, delete.join().getFilesTransferred());
+            }
+        }
+        for (File localFile : localFiles) {
+            FileUtils.deleteQuietly(localFile);
+        }
+    }
+
+    @Test
+    public void asyncDownloadAndStat_FTP() throws IOException {
+        String curDir = System.getProperty("user.dir");
+        String password = ftpClientCredentials.getEk().getPasswordString();
+        File localFile = new File(curDir + "/asyncFtp.txt");
+        FileUtils.writeStringToFile(localFile, Strings.repeat("async ", 100), "UTF-8");
+        String saveDir = curDir + "/asyncFtpDownload";
+        try (AsyncRemoteConnection async = new AsyncRemoteConnection("FTP", ftpClientCredentials.getServer(),
+                ftpClientCredentials.getUserName(), password)) {
+            assertTrue(async.upload(localFile.getPath(), "/").join().isSuccessful());
+            Optional<RemoteFileEntry> stat = async.stat("/asyncFtp.txt").join();
+            assertTrue(stat.isPresent());
+            assertEquals(600, stat.get().getSize());
+            assertFalse(async.stat("/asyncFtp_missing.txt").join().isPresent());
+            TransferSummary download = async.download(saveDir, "/asyncFtp.txt").join();
+            assertTrue(download.isSuccessful());
+            assertEquals(600, download.getBytesTransferred());
+            assertEquals(600, new File(saveDir, "asyncFtp.txt").length());
+            assertEquals(1, async.delete("/asyncFtp.txt").join().getFilesTransferred());
+        }
+        FileUtils.deleteQuietly(localFile);
+        FileUtils.deleteDirectory(new File(saveDir));
+    }
+
     public static void createDummyFooFile() throws FTPClientException {
         try{
             FileUtils.touch(localDummyFilePath.toFile());
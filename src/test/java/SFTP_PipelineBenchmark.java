@@ -0,0 +1,148 @@
+import ftp.core.FTPClientException;
+import ftp.core.SFTPConnection;
+import ftp.core.TransferSummary;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Benchmark of SFTPConnection.downloadSingleFilePipelined against an emulated round trip time.
+ *
+ * The SFTP server of src/test/resources/connection_details.properties is reached through a local proxy
+ * that delays every chunk by half the round trip in each direction, without limiting the bandwidth.
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=SFTP_PipelineBenchmark
+ */
+public class SFTP_PipelineBenchmark {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final int[] ROUND_TRIPS_MILLIS = {0, 10, 50, 100};
+    private static final int[] WINDOWS = {1, 16, 64, 256};
+
+    public static void main(String[] args) throws Exception {
+        Properties prop = new Properties();
+        try (InputStream inputStream = new FileInputStream("src/test/resources/connection_details.properties")) {
+            prop.load(inputStream);
+        }
+        String host = prop.getProperty("sftp_hostname");
+        String user = prop.getProperty("sftp_username");
+        String password = prop.getProperty("sftp_password");
+
+        File localFile = new File(System.getProperty("user.dir"), "pipeline-benchmark.bin");
+        byte[] content = new byte[FILE_SIZE];
+        new Random(1).nextBytes(content);
+        FileUtils.writeByteArrayToFile(localFile, content);
+        SFTPConnection setup = new SFTPConnection();
+        setup.connect(host, user, password);
+        setup.uploadSingleFile(localFile.getPath(), "/");
+
+        File saveDir = new File(System.getProperty("user.dir"), "pipeline-benchmark");
+        System.out.println("RTT (ms) | window | MB/s");
+        for (int roundTrip : ROUND_TRIPS_MILLIS) {
+            try (DelayProxy proxy = new DelayProxy(host, 22, roundTrip / 2)) {
+                SFTPConnection connection = new SFTPConnection();
+                connection.connect("127.0.0.1", proxy.getPort(), user, password);
+                for (int window : WINDOWS) {
+                    TransferSummary summary = connection.downloadSingleFilePipelined(saveDir.getPath(), "/pipeline-benchmark.bin", window);
+                    if (!summary.isSuccessful()) {
+                        throw new FTPClientException("Download failed : " + summary.getFailures());
+                    }
+                    System.out.printf("%8d | %6d | %.1f%n", roundTrip, window, summary.getThroughput() / (1024 * 1024));
+                }
+                connection.disconnect();
+            }
+        }
+        if (!Arrays.equals(content, FileUtils.readFileToByteArray(new File(saveDir, localFile.getName())))) {
+            throw new FTPClientException("Downloaded file does not match the uploaded file");
+        }
+        setup.deleteFile("/pipeline-benchmark.bin");
+        setup.disconnect();
+        FileUtils.deleteDirectory(saveDir);
+        FileUtils.forceDelete(localFile);
+    }
+
+    /**
+     * Accepts one connection and forwards it to the target, delaying every chunk by `delayMillis`
+     * in both directions.
+     */
+    private static class DelayProxy implements AutoCloseable {
+        private static final byte[] END_OF_STREAM = new byte[0];
+        private final ServerSocket serverSocket;
+
+        DelayProxy(String targetHost, int targetPort, long delayMillis) throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    Socket client = serverSocket.accept();
+                    Socket target = new Socket(targetHost, targetPort);
+                    client.setTcpNoDelay(true);
+                    target.setTcpNoDelay(true);
+                    forward(client.getInputStream(), target.getOutputStream(), delayMillis);
+                    forward(target.getInputStream(), client.getOutputStream(), delayMillis);
+                } catch (IOException e) {
+                    System.err.println("Proxy error : " + e.getMessage());
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private static void forward(InputStream from, OutputStream to, long delayMillis) {
+            BlockingQueue<Object[]> inFlight = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    int read;
+                    while ((read = from.read(buffer)) >= 0) {
+                        inFlight.add(new Object[]{System.nanoTime() + delayMillis * 1_000_000, Arrays.copyOf(buffer, read)});
+                    }
+                } catch (IOException e) {
+                    // The other side closed the connection.
+                }
+                inFlight.add(new Object[]{0L, END_OF_STREAM});
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Object[] chunk = inFlight.take();
+                        if (chunk[1] == END_OF_STREAM) {
+                            break;
+                        }
+                        long wait = (Long) chunk[0] - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                        to.write((byte[]) chunk[1]);
+                        to.flush();
+                    }
+                    to.close();
+                } catch (IOException | InterruptedException e) {
+                    // The other side closed the connection.
+                }
+            });
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
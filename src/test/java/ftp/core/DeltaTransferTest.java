@@ -0,0 +1,127 @@
+package ftp.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the delta encoder, without a server: the signatures are computed here the way the helper script
+ * computes them, and the delta is applied here the way the helper script applies it.
+ */
+public class DeltaTransferTest {
+
+    private static final int BLOCK_SIZE = 8 * 1024;
+
+    @Test
+    public void changedBytesAreSentAsLiteral() throws Exception {
+        byte[] oldContent = randomBytes(40 * BLOCK_SIZE + 123, 1);
+        byte[] newContent = oldContent.clone();
+        newContent[10 * BLOCK_SIZE + 5] ^= 1;
+        DeltaTransfer.DeltaResult result = encodeAndCheck(oldContent, newContent);
+        assertEquals(39, result.matchedBlocks);
+        assertEquals(BLOCK_SIZE + 123, result.literalBytes);
+    }
+
+    @Test
+    public void blocksAreFoundAfterAnInsertion() throws Exception {
+        byte[] oldContent = randomBytes(40 * BLOCK_SIZE, 2);
+        byte[] newContent = new byte[oldContent.length + 7];
+        System.arraycopy(oldContent, 0, newContent, 7, oldContent.length);
+        DeltaTransfer.DeltaResult result = encodeAndCheck(oldContent, newContent);
+        assertEquals(40, result.matchedBlocks);
+        assertEquals(7, result.literalBytes);
+    }
+
+    @Test
+    public void unrelatedFileIsSentWhole() throws Exception {
+        byte[] oldContent = randomBytes(5 * BLOCK_SIZE, 3);
+        byte[] newContent = randomBytes(3 * BLOCK_SIZE + 17, 4);
+        DeltaTransfer.DeltaResult result = encodeAndCheck(oldContent, newContent);
+        assertEquals(0, result.matchedBlocks);
+        assertEquals(newContent.length, result.literalBytes);
+    }
+
+    @Test
+    public void shellAndSftpMustSeeTheSameFile() {
+        assertTrue(DeltaTransfer.isSameFile("1024 1600000000 /home/user/a b.bin\n", "/home/user/a b.bin", 1024, 1600000000));
+        // A chrooted SFTP subsystem resolves the same name to another path.
+        assertFalse(DeltaTransfer.isSameFile("1024 1600000000 /srv/sftp/user/a.bin", "/a.bin", 1024, 1600000000));
+        assertFalse(DeltaTransfer.isSameFile("2048 1600000000 /a.bin", "/a.bin", 1024, 1600000000));
+        assertFalse(DeltaTransfer.isSameFile("1024 1600000001 /a.bin", "/a.bin", 1024, 1600000000));
+        assertFalse(DeltaTransfer.isSameFile("", "/a.bin", 1024, 1600000000));
+    }
+
+    private static DeltaTransfer.DeltaResult encodeAndCheck(byte[] oldContent, byte[] newContent) throws Exception {
+        Map<Integer, List<DeltaTransfer.BlockSignature>> signatures = DeltaTransfer.parseSignatures(signatures(oldContent));
+        File localFile = File.createTempFile("delta", ".bin");
+        try {
+            FileUtils.writeByteArrayToFile(localFile, newContent);
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            DeltaTransfer.DeltaResult result = DeltaTransfer.writeDelta(localFile, BLOCK_SIZE, signatures, delta);
+            byte[] rebuilt = applyDelta(oldContent, delta.toByteArray());
+            assertArrayEquals(newContent, rebuilt);
+            assertEquals(hex(MessageDigest.getInstance("MD5").digest(newContent)), result.md5);
+            return result;
+        } finally {
+            FileUtils.forceDelete(localFile);
+        }
+    }
+
+    private static String signatures(byte[] content) throws Exception {
+        StringBuilder output = new StringBuilder().append(content.length).append('\n');
+        for (int start = 0; start + BLOCK_SIZE <= content.length; start += BLOCK_SIZE) {
+            Adler32 adler32 = new Adler32();
+            adler32.update(content, start, BLOCK_SIZE);
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(content, start, BLOCK_SIZE);
+            output.append(adler32.getValue()).append(' ').append(hex(md5.digest())).append('\n');
+        }
+        return output.toString();
+    }
+
+    private static byte[] applyDelta(byte[] oldContent, byte[] delta) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(delta));
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        while (true) {
+            byte op = input.readByte();
+            if (op == DeltaTransfer.OP_COPY_BLOCK) {
+                int start = input.readInt() * BLOCK_SIZE;
+                rebuilt.write(oldContent, start, Math.min(BLOCK_SIZE, oldContent.length - start));
+            } else if (op == DeltaTransfer.OP_LITERAL) {
+                byte[] literal = new byte[input.readInt()];
+                input.readFully(literal);
+                rebuilt.write(literal);
+            } else {
+                assertEquals(DeltaTransfer.OP_END, op);
+                assertEquals(0, input.available());
+                return rebuilt.toByteArray();
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : bytes) {
+            hex.append(String.format("%02x", value));
+        }
+        return hex.toString();
+    }
+}